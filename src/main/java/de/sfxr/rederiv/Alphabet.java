@@ -0,0 +1,163 @@
+package de.sfxr.rederiv;
+
+import de.sfxr.rederiv.support.Interval;
+import de.sfxr.rederiv.support.IntervalSet;
+import java.nio.IntBuffer;
+import java.util.*;
+
+/**
+ * A partition of the code point space into numbered classes.
+ *
+ * <p>Class lookup goes through a two level table: the upper bits of a code point select one of the
+ * 256 entry blocks of {@code classes}, the lower 8 bits the entry. Equal blocks are stored only once,
+ * for patterns with a handful of character classes nearly all blocks are uniform and share a single
+ * row per class.
+ */
+final class Alphabet {
+
+    static final int UNICODE_END = 0x110000;
+
+    private static final int BLOCK_BITS = 8;
+    private static final int BLOCK_SIZE = 1 << BLOCK_BITS;
+    private static final int BLOCK_MASK = BLOCK_SIZE - 1;
+
+    private final int[] blocks;
+    private final int[] classes;
+    private final IntervalSet<Void>[] chars;
+    // maximal runs of code points in the same class, run i starts at runStarts[i]
+    private final int[] runStarts;
+    private final int[] runClasses;
+
+    private Alphabet(int[] blocks, int[] classes, IntervalSet<Void>[] chars, int[] runStarts, int[] runClasses) {
+        this.blocks = blocks;
+        this.classes = classes;
+        this.chars = chars;
+        this.runStarts = runStarts;
+        this.runClasses = runClasses;
+    }
+
+    /**
+     * Builds the alphabet from a sequence of atoms: atom {@code i} covers {@code [bounds[i],
+     * bounds[i + 1])} (the last one extends to the end of the code point space) and belongs to class
+     * {@code atomClass[i]}.
+     */
+    static Alphabet fromAtoms(int[] bounds, int[] atomClass, int size) {
+        if (bounds.length == 0 || bounds[0] != 0 || bounds.length != atomClass.length)
+            throw new IllegalArgumentException();
+
+        var blocks = new int[UNICODE_END >>> BLOCK_BITS];
+        var rows = new ArrayList<int[]>();
+        var dedup = new HashMap<IntBuffer, Integer>();
+        var uniform = new int[size];
+        Arrays.fill(uniform, -1);
+        var block = new int[BLOCK_SIZE];
+
+        for (int b = 0, k = 0; b < blocks.length; ++b) {
+            var lo = b << BLOCK_BITS;
+            var hi = lo + BLOCK_SIZE;
+            while (k + 1 < bounds.length && bounds[k + 1] <= lo) ++k;
+
+            if (k + 1 >= bounds.length || bounds[k + 1] >= hi) {
+                // the whole block lies within atom k
+                var c = atomClass[k];
+                if (uniform[c] < 0) {
+                    Arrays.fill(block, c);
+                    uniform[c] = intern(rows, dedup, block);
+                }
+                blocks[b] = uniform[c];
+            } else {
+                for (int cp = lo, j = k; cp < hi; ++cp) {
+                    while (j + 1 < bounds.length && bounds[j + 1] <= cp) ++j;
+                    block[cp & BLOCK_MASK] = atomClass[j];
+                }
+                blocks[b] = intern(rows, dedup, block);
+            }
+        }
+
+        var classes = new int[rows.size() * BLOCK_SIZE];
+        for (int i = 0; i < rows.size(); ++i)
+            System.arraycopy(rows.get(i), 0, classes, i * BLOCK_SIZE, BLOCK_SIZE);
+
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        var chars = (IntervalSet<Void>[]) new IntervalSet[size];
+        var ivs = new ArrayList<List<Interval<Void>>>();
+        for (int c = 0; c < size; ++c) ivs.add(new ArrayList<>());
+        for (int i = 0; i < bounds.length; ++i) {
+            var end = i + 1 < bounds.length ? bounds[i + 1] : UNICODE_END;
+            ivs.get(atomClass[i]).add(Interval.of(bounds[i], end));
+        }
+        for (int c = 0; c < size; ++c) chars[c] = IntervalSet.buildDestructive(ivs.get(c), null);
+
+        var runStarts = new int[bounds.length];
+        var runClasses = new int[bounds.length];
+        var runs = 0;
+        for (int i = 0; i < bounds.length; ++i) {
+            if (runs > 0 && runClasses[runs - 1] == atomClass[i]) continue;
+            runStarts[runs] = bounds[i];
+            runClasses[runs++] = atomClass[i];
+        }
+
+        return new Alphabet(blocks, classes, chars, Arrays.copyOf(runStarts, runs), Arrays.copyOf(runClasses, runs));
+    }
+
+    /** The coarsest alphabet in which every class lies either inside or outside of each set. */
+    static Alphabet fromCharSets(Collection<CharSet> sets) {
+        var points = new TreeSet<Integer>();
+        points.add(0);
+        for (var S : sets)
+            for (var iv : S.toIntervalSet().asList()) {
+                points.add(iv.a);
+                points.add(iv.b);
+            }
+        points.remove(UNICODE_END);
+        var bounds = points.stream().mapToInt(Integer::intValue).toArray();
+
+        var setList = new ArrayList<>(sets);
+        var atomClass = new int[bounds.length];
+        var classIds = new HashMap<BitSet, Integer>();
+        for (int j = 0; j < bounds.length; ++j) {
+            var sig = new BitSet(setList.size());
+            for (int k = 0; k < setList.size(); ++k)
+                if (setList.get(k).containsChar(bounds[j])) sig.set(k);
+            atomClass[j] = classIds.computeIfAbsent(sig, ignored -> classIds.size());
+        }
+
+        return fromAtoms(bounds, atomClass, classIds.size());
+    }
+
+    private static int intern(List<int[]> rows, Map<IntBuffer, Integer> dedup, int[] block) {
+        var off = dedup.get(IntBuffer.wrap(block));
+        if (off != null)
+            return off;
+        var row = block.clone();
+        off = rows.size() * BLOCK_SIZE;
+        rows.add(row);
+        dedup.put(IntBuffer.wrap(row), off);
+        return off;
+    }
+
+    int classOf(int cp) {
+        return classes[blocks[cp >>> BLOCK_BITS] + (cp & BLOCK_MASK)];
+    }
+
+    /** The class of all code points in {@code [from, to)}, or -1 if they fall into several classes. */
+    int classOf(int from, int to) {
+        var r = Arrays.binarySearch(runStarts, from);
+        if (r < 0) r = -r - 2;
+        var end = r + 1 < runStarts.length ? runStarts[r + 1] : UNICODE_END;
+        return to <= end ? runClasses[r] : -1;
+    }
+
+    int size() {
+        return chars.length;
+    }
+
+    IntervalSet<Void> chars(int c) {
+        return chars[c];
+    }
+
+    /** Some code point of class {@code c}. */
+    int representative(int c) {
+        return chars[c].min();
+    }
+}
@@ -9,17 +9,19 @@ public final class CharSet extends Re implements Set<Integer> {
 
     private final static boolean CHECKING = Checking.isCheckingEnabled(CharSet.class);
 
-    public static final CharSet NONE = new CharSet(IntervalSet.empty());
-    public static final CharSet ANY = new CharSet(NONE.chars, true);
+    public static final CharSet NONE = intern(new CharSet(IntervalSet.empty()));
+    public static final CharSet ANY = intern(new CharSet(NONE.chars, true));
     public static final CharSet DIGIT = fromString("0123456789");
 
     public final IntervalSet<Void> chars;
     public final boolean complement;
+    private final int hash;
     private int repr = -1;
 
     private CharSet(IntervalSet<Void> chars, boolean complement) {
         this.complement = complement;
         this.chars = Objects.requireNonNull(chars);
+        this.hash = Objects.hash(complement, chars);
     }
 
     public static CharSet from(IntervalSet<Void> chars) {
@@ -27,7 +29,7 @@ public final class CharSet extends Re implements Set<Integer> {
     }
 
     public static CharSet from(IntervalSet<Void> chars, boolean complement) {
-        return chars.isEmpty() ? (complement ? ANY : NONE) : new CharSet(chars, complement);
+        return chars.isEmpty() ? (complement ? ANY : NONE) : intern(new CharSet(chars, complement));
     }
 
     private CharSet(IntervalSet<Void> chars) {
@@ -62,9 +64,14 @@ public final class CharSet extends Re implements Set<Integer> {
         return b.toString();
     }
 
+    @Override
+    public Re reverse() {
+        return this;
+    }
+
     @Override
     public String litPrefix() {
-        return chars.isPoint() ? Character.toString(pickOne()) : "";
+        return !complement && chars.isPoint() ? Character.toString(chars.min()) : "";
     }
 
     public boolean containsChar(int ch) {
@@ -73,7 +80,13 @@ public final class CharSet extends Re implements Set<Integer> {
 
     @Override
     public int hashCode() {
-        return Objects.hash(complement, chars);
+        return hash;
+    }
+
+    @Override
+    protected boolean shallowEquals(Re re) {
+        var cs = (CharSet) re;
+        return complement == cs.complement && chars.equals(cs.chars);
     }
 
     @Override
@@ -204,7 +217,7 @@ public final class CharSet extends Re implements Set<Integer> {
     private static CharSet fromSingleChar(int ch) {
         if (!Character.isValidCodePoint(ch))
             throw new IllegalArgumentException("Invalid code point");
-        return new CharSet(IntervalSet.of(Interval.of(ch)));
+        return intern(new CharSet(IntervalSet.of(Interval.of(ch))));
     }
 
     @Override
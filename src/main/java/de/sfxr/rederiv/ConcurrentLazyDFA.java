@@ -0,0 +1,140 @@
+package de.sfxr.rederiv;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A lazily built DFA which can be shared between threads.
+ *
+ * <p>States are interned in a concurrent map keyed by their derivative, so all threads agree on
+ * them. Each state owns an array with one successor slot per class of the alphabet. An empty slot is
+ * filled by computing the derivative and publishing the interned successor with a CAS. States are
+ * immutable apart from their slots, so the matching loop reads the slots with plain loads and never
+ * locks.
+ *
+ * <p>At most {@code maxStates} states are interned. Past that limit, new derivatives are still
+ * computed but no longer linked into the automaton, so matching keeps working without growing it
+ * further.
+ */
+public final class ConcurrentLazyDFA<Re extends ReAlg<Re>> {
+
+    public static final int DEFAULT_MAX_STATES = 10000;
+
+    private static final VarHandle SLOTS = MethodHandles.arrayElementVarHandle(State[].class);
+
+    private final Re re;
+    private final Alphabet alphabet;
+    private final int maxStates;
+    private final ConcurrentHashMap<Re, State<Re>> states = new ConcurrentHashMap<>();
+    private final State<Re> dead;
+    private final State<Re> anchored;
+    private volatile State<Re> search;
+
+    private static final class State<Re> {
+        final Re re;
+        final boolean accepting;
+        final boolean interned;
+        final State<Re>[] next;
+
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        State(Re re, boolean accepting, boolean interned, int ncls) {
+            this.re = re;
+            this.accepting = accepting;
+            this.interned = interned;
+            this.next = (State<Re>[]) new State[ncls];
+        }
+    }
+
+    private ConcurrentLazyDFA(Re re, int maxStates) {
+        this.re = Objects.requireNonNull(re);
+        this.alphabet = Alphabet.fromCharSets(re.charSets());
+        this.maxStates = maxStates;
+        this.dead = new State<>(re.asVoid(), false, true, alphabet.size());
+        this.anchored = state(re);
+    }
+
+    public static <Re extends ReAlg<Re>> ConcurrentLazyDFA<Re> compile(Re re) {
+        return compile(re, DEFAULT_MAX_STATES);
+    }
+
+    public static <Re extends ReAlg<Re>> ConcurrentLazyDFA<Re> compile(Re re, int maxStates) {
+        if (maxStates <= 0)
+            throw new IllegalArgumentException("maxStates must be positive");
+        return new ConcurrentLazyDFA<>(re, maxStates);
+    }
+
+    /** Same semantics as {@link DFA#matches(String)}. */
+    public boolean matches(String s) {
+        if (s == null)
+            throw new NullPointerException();
+        return earliestEnd(anchored, s, 0) >= 0;
+    }
+
+    /** Same semantics as {@link DFA#find(String, int)}. */
+    public int find(String s, int fromIndex) {
+        if (fromIndex < 0 || fromIndex > s.length())
+            throw new IndexOutOfBoundsException("Illegal start index");
+        var init = search;
+        if (init == null)
+            search = init = state(re.anyChar().many().seq(re));
+        return earliestEnd(init, s, fromIndex);
+    }
+
+    public int find(String s) {
+        return find(s, 0);
+    }
+
+    public Re re() { return re; }
+
+    /** Number of interned states. */
+    int stateCount() {
+        return states.size();
+    }
+
+    private State<Re> state(Re q) {
+        if (q.isVoid())
+            return dead;
+        var x = states.get(q);
+        if (x != null)
+            return x;
+        var interned = states.size() < maxStates;
+        x = new State<>(q, q.matchesEmpty(), interned, alphabet.size());
+        if (!interned)
+            return x;
+        var old = states.putIfAbsent(q, x);
+        return old != null ? old : x;
+    }
+
+    private State<Re> transition(State<Re> x, int c) {
+        var y = state(x.re.deriv(alphabet.representative(c)));
+        // only interned states are linked, so the automaton stays bounded
+        if (!y.interned)
+            return y;
+        if (SLOTS.compareAndSet(x.next, c, null, y))
+            return y;
+        @SuppressWarnings("unchecked")
+        var published = (State<Re>) SLOTS.getVolatile(x.next, c);
+        return published;
+    }
+
+    private int earliestEnd(State<Re> init, String s, int from) {
+        var x = init;
+        var i = from;
+
+        for (int n = s.length(); !x.accepting; ) {
+            if (i >= n)
+                return -1;
+            var cp = s.codePointAt(i);
+            i += Character.charCount(cp);
+            var c = alphabet.classOf(cp);
+            var y = x.next[c];
+            x = y != null ? y : transition(x, c);
+            if (x == dead)
+                return -1;
+        }
+
+        return i;
+    }
+}
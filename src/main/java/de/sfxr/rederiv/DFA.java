@@ -1,98 +1,275 @@
 package de.sfxr.rederiv;
 
-import de.sfxr.rederiv.support.IntervalSet;
-import de.sfxr.rederiv.support.OrderedSemigroup;
+import java.nio.ByteBuffer;
 import java.util.*;
+import java.util.stream.LongStream;
+import java.util.stream.StreamSupport;
 
 public class DFA<Re extends ReAlg<Re>> {
 
-    private final DFABuilder<Re> builder;
-
-    private final IntervalSet<Integer>[] trans;
-    private final int initial;
+    private final DFATable table;
 
     private final Re re;
 
-    private static int newState(int q, boolean accepting) {
-        return (q << 1) | (accepting ? 1 : 0);
+    // literal prefix of all matches used to skip ahead while searching, null if there is none
+    private final String prefix;
+
+    // rejects inputs without any required factor while searching, null if not useful
+    private final Prefilter prefilter;
+
+    private volatile Utf8Table utf8;
+
+    private volatile DFATable search;
+
+    private volatile Utf8Table searchUtf8;
+
+    private volatile DFATable leftmostLongest;
+
+    private volatile DFATable reverse;
+
+    private DFA(DFATable table, Re re) {
+        this.table = table;
+        this.re = Objects.requireNonNull(re);
+        var p = re.litPrefix();
+        // a prefix starting inside of a surrogate pair could be found off code point boundaries
+        this.prefix = p.isEmpty() || Character.isLowSurrogate(p.charAt(0)) ? null : p;
+        this.prefilter = prefix == null ? Prefilter.of(re.requiredFactors()) : null;
     }
 
-    private static int stateQ(int s) {
-        return s >>> 1;
+    /** Whether some prefix of {@code s} matches, same as {@link MatchMode#PREFIX}. */
+    public boolean matches(String s) {
+        if (s == null)
+            throw new NullPointerException();
+        return table.lookingAt(s);
     }
 
-    private static boolean isAcceptingState(int s) {
-        return (s & 1) != 0;
+    public boolean matches(String s, MatchMode mode) {
+        if (s == null)
+            throw new NullPointerException();
+        switch (mode) {
+            case FULL:
+                return table.fullMatch(s);
+            case PREFIX:
+                return table.lookingAt(s);
+            case EARLIEST:
+                return find(s, 0) >= 0;
+        }
+        throw new IllegalArgumentException("mode: " + mode);
     }
 
-    private static int mkDFAState(DFABuilder<?> builder, int q) {
-        return newState(q, builder.accepting.contains(q));
+    public int find(String s) {
+        return find(s, 0);
     }
 
-    private static final OrderedSemigroup<Integer> INTS = new OrderedSemigroup<>() {
-        @Override
-        public int compare(Integer x, Integer y) {
-            return Integer.compare(x, y);
-        }
+    /**
+     * Searches for the first occurrence of the pattern in {@code s} at or after {@code fromIndex}.
+     *
+     * @return the end offset of the earliest ending match, or -1 if there is none
+     */
+    public int find(String s, int fromIndex) {
+        if (fromIndex < 0 || fromIndex > s.length())
+            throw new IndexOutOfBoundsException("Illegal start index");
+        if (prefilter != null && !prefilter.mayMatch(s, fromIndex))
+            return -1;
+        return search().earliestEnd(s, fromIndex, prefix);
+    }
 
-        @Override
-        public Integer apply(Integer x, Integer y) {
-            if (x.intValue() == y)
-                return x;
-            throw new IllegalStateException("IMPOSSIBLE: " + x + " != " + y);
+    /**
+     * Returns a matcher for input arriving in chunks, a char stream behaves like {@link
+     * #matches(String, MatchMode)} on the concatenation of all chunks.
+     */
+    public StreamMatcher streamMatcher(MatchMode mode) {
+        switch (mode) {
+            case FULL:
+            case PREFIX:
+                return new StreamMatcher(mode, table, this::utf8);
+            case EARLIEST:
+                return new StreamMatcher(mode, search(), this::searchUtf8);
         }
-    };
-
-    private DFA(DFABuilder<Re> builder, Re re) {
-        this.builder = builder;
-        @SuppressWarnings("unchecked")
-        var trans = (IntervalSet<Integer>[]) new IntervalSet[builder.Q.size()];
-        this.trans = trans;
-        this.initial = newState(0, builder.accepting.contains(0));
-        this.re = Objects.requireNonNull(re);
+        throw new IllegalArgumentException("mode: " + mode);
+    }
 
-        for (int i = 0; i < this.trans.length; ++i) {
-            var d = builder.delta.get(i);
-            if (d == null) {
-                trans[i] = IntervalSet.empty();
-            } else {
-                trans[i] = d.entrySet().stream()
-                        .map(e -> e.getKey().toIntervalSet().map(ignored -> mkDFAState(builder, e.getValue()), INTS))
-                        .reduce(IntervalSet.empty(), (x, y) -> x.union(y, INTS));
-            }
-        }
+    private Utf8Table searchUtf8() {
+        var t = searchUtf8;
+        if (t == null)
+            searchUtf8 = t = Utf8Table.build(search());
+        return t;
     }
 
-    public boolean matches(String s) {
-        if (s == null)
-            throw new NullPointerException();
+    private DFATable search() {
+        var t = search;
+        if (t == null)
+            search = t = tableOf(re.anyChar().many().seq(re));
+        return t;
+    }
 
-        var x = initial;
-        int cp;
-
-        for (int i = 0; !isAcceptingState(x); i += Character.charCount(cp)) {
-            if (i >= s.length())
-                return false;
-            cp = s.codePointAt(i);
-            var xx = trans[stateQ(x)].find(cp);
-            if (xx == null)
-                return false;
-            x = xx;
-        }
+    /**
+     * Finds the leftmost-longest match in {@code s} at or after {@code fromIndex}: of all matches
+     * the one starting first, and of those the longest.
+     *
+     * <p>The end is found in a single forward pass, the start by matching the reversed pattern
+     * backwards from there, so both take time linear in the scanned input. Empty matches are
+     * reported like any other, callers iterating over all matches have to step past them.
+     *
+     * @return the span packed into a long, to be taken apart with {@link #spanStart} and {@link
+     *     #spanEnd}, or -1 if there is no match
+     */
+    public long findSpan(String s, int fromIndex) {
+        if (fromIndex < 0 || fromIndex > s.length())
+            throw new IndexOutOfBoundsException("Illegal start index");
+        if (prefilter != null && !prefilter.mayMatch(s, fromIndex))
+            return -1;
+        var end = leftmostLongest().longestEnd(s, fromIndex, prefix);
+        if (end < 0)
+            return -1;
+        var start = reverse().longestStart(s, end, fromIndex);
+        if (start < 0)
+            throw new IllegalStateException("BUG: no start for match ending at " + end);
+        return span(start, end);
+    }
 
-        return true;
+    public long findSpan(String s) {
+        return findSpan(s, 0);
     }
 
-    public static <Re extends ReAlg<Re>> DFA<Re> compile(Re re) {
+    static long span(int start, int end) {
+        return (long) start << 32 | end;
+    }
+
+    public static int spanStart(long span) {
+        return (int) (span >>> 32);
+    }
+
+    public static int spanEnd(long span) {
+        return (int) span;
+    }
+
+    private DFATable leftmostLongest() {
+        var t = leftmostLongest;
+        if (t == null)
+            leftmostLongest = t = DFATable.leftmostLongest(table);
+        return t;
+    }
+
+    private DFATable reverse() {
+        var t = reverse;
+        if (t == null)
+            reverse = t = tableOf(re.reverse());
+        return t;
+    }
+
+    private static <Re extends ReAlg<Re>> DFATable tableOf(Re re) {
         var builder = new DFABuilder<Re>();
         builder.build(re);
-        return new DFA<>(builder, re);
+        return DFATable.build(builder);
+    }
+
+    /**
+     * Like {@link #matches(String)}, but on UTF-8 encoded input. Malformed bytes never take part in
+     * a match, but once a prefix is accepted the input matches whatever follows it.
+     */
+    public boolean matches(byte[] b, int off, int len) {
+        Objects.checkFromIndexSize(off, len, b.length);
+        return utf8().lookingAt(b, off, len);
+    }
+
+    /** Matches the UTF-8 encoded bytes between position and limit, the buffer is left untouched. */
+    public boolean matches(ByteBuffer buf) {
+        return utf8().lookingAt(buf);
+    }
+
+    /**
+     * Like {@link #matches(ByteBuffer)} under {@code mode}, but splits large inputs into chunks
+     * which are matched in parallel on the current ForkJoin pool, or the common pool.
+     *
+     * <p>Each chunk is matched from all states at once, so this pays off for automata with few
+     * states, whose runs quickly converge.
+     */
+    public boolean matchesParallel(ByteBuffer buf, MatchMode mode) {
+        return matchesParallel(buf, mode, ParallelMatch.DEFAULT_MIN_CHUNK);
+    }
+
+    boolean matchesParallel(ByteBuffer buf, MatchMode mode, int minChunk) {
+        return ParallelMatch.matches(utf8(mode), mode, buf, minChunk);
+    }
+
+    /**
+     * Matches every row of a column of UTF-8 strings under {@code mode}, row {@code i} consists of
+     * {@code data[offsets[i], offsets[i + 1])}. Bit {@code i} of {@code bitmap} is set if row {@code
+     * i} matches, the words covering {@code rows} are overwritten.
+     */
+    public void matchColumn(byte[] data, int[] offsets, int rows, MatchMode mode, long[] bitmap) {
+        Objects.checkFromIndexSize(0, rows + 1, offsets.length);
+        Objects.checkFromIndexSize(0, (rows + 63) >>> 6, bitmap.length);
+        utf8(mode).matchColumn(mode.stopFlags(), data, offsets, rows, bitmap);
+    }
+
+    /**
+     * Like {@link #matchColumn}, but stores the indices of the matching rows in ascending order into
+     * {@code selection}.
+     *
+     * @return the number of matching rows
+     */
+    public int selectColumn(byte[] data, int[] offsets, int rows, MatchMode mode, int[] selection) {
+        Objects.checkFromIndexSize(0, rows + 1, offsets.length);
+        Objects.checkFromIndexSize(0, rows, selection.length);
+        return utf8(mode).selectColumn(mode.stopFlags(), data, offsets, rows, selection);
+    }
+
+    /**
+     * Returns the spans of the lines of {@code cs[off, off + len)} matching under {@code mode},
+     * packed like {@link #findSpan} with offsets into {@code cs}. Lines are terminated by {@code
+     * '\n'}, see {@link LineSpliterator}. A parallel stream splits the buffer on line boundaries.
+     */
+    public LongStream matchingLines(char[] cs, int off, int len, MatchMode mode) {
+        Objects.checkFromIndexSize(off, len, cs.length);
+        var t = mode == MatchMode.EARLIEST ? search() : table;
+        var lines = new LineSpliterator.Chars(t, mode.stopFlags(), cs, off, off + len);
+        return StreamSupport.longStream(lines, false);
+    }
+
+    /** Like {@link #matchingLines(char[], int, int, MatchMode)}, but on UTF-8 encoded input. */
+    public LongStream matchingLines(byte[] b, int off, int len, MatchMode mode) {
+        Objects.checkFromIndexSize(off, len, b.length);
+        var lines = new LineSpliterator.Bytes(utf8(mode), mode.stopFlags(), b, off, off + len);
+        return StreamSupport.longStream(lines, false);
+    }
+
+    /** Returns a scanner for the lines of files which contain a match, see {@link Grep}. */
+    public Grep grep() {
+        return new Grep(searchUtf8(), Grep.DEFAULT_WINDOW);
+    }
+
+    Grep grep(int window) {
+        return new Grep(searchUtf8(), window);
+    }
+
+    private Utf8Table utf8(MatchMode mode) {
+        switch (mode) {
+            case FULL:
+            case PREFIX:
+                return utf8();
+            case EARLIEST:
+                return searchUtf8();
+        }
+        throw new IllegalArgumentException("mode: " + mode);
+    }
+
+    private Utf8Table utf8() {
+        var t = utf8;
+        if (t == null)
+            utf8 = t = Utf8Table.build(table);
+        return t;
+    }
+
+    public static <Re extends ReAlg<Re>> DFA<Re> compile(Re re) {
+        return new DFA<>(tableOf(re), re);
     }
 
     public Re re() { return re; }
 
     @Override
     public String toString() {
-        return builder.toString();
+        return table.toString();
     }
 }
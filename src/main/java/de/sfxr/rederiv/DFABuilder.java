@@ -2,6 +2,7 @@ package de.sfxr.rederiv;
 
 import de.sfxr.rederiv.support.Checking;
 import java.util.*;
+import java.util.function.UnaryOperator;
 import java.util.stream.Collectors;
 
 final class DFABuilder<Re extends ReAlg<Re>> {
@@ -12,6 +13,16 @@ final class DFABuilder<Re extends ReAlg<Re>> {
     final Map<Re, Integer> Q = new HashMap<>();
     final Map<Integer, Map<CharSet, Integer>> delta = new HashMap<>();
     final Set<Integer> accepting = new HashSet<>();
+    private final UnaryOperator<Re> canonical;
+
+    DFABuilder() {
+        this(UnaryOperator.identity());
+    }
+
+    /** {@code canonical} is applied to every state before it is added to the automaton. */
+    DFABuilder(UnaryOperator<Re> canonical) {
+        this.canonical = canonical;
+    }
 
     private int putQ(Re q) {
         var old = Q.putIfAbsent(q, nextQ);
@@ -32,9 +43,8 @@ final class DFABuilder<Re extends ReAlg<Re>> {
     private void buildRec(Re q, CharSet S) {
         if (S.isEmptySet()) return;
         var qI = putQ(q);
-        var repr = S.pickOne();
-        if (CHECKING) System.out.println("q={" + qI + "}" + q + ", S=" + S + ", repr=" + Character.toString(repr));
-        var dq = q.deriv(repr);
+        if (CHECKING) System.out.println("q={" + qI + "}" + q + ", S=" + S);
+        var dq = canonical.apply(q.deriv(S));
         if (!dq.isVoid()) {
             var fresh = Q.get(dq) == null;
             var dqI = putQ(dq);
@@ -51,6 +61,7 @@ final class DFABuilder<Re extends ReAlg<Re>> {
     }
 
     void build(Re q) {
+        q = canonical.apply(q);
         explore(q);
         for (var ent : Q.entrySet())
             if (ent.getKey().matchesEmpty()) accepting.add(ent.getValue());
@@ -0,0 +1,475 @@
+package de.sfxr.rederiv;
+
+import de.sfxr.rederiv.support.Interval;
+import de.sfxr.rederiv.support.IntervalSet;
+import java.nio.IntBuffer;
+import java.util.*;
+
+/**
+ * Flat transition tables of a compiled {@link DFA}.
+ *
+ * <p>Each state owns one row of {@code stride} consecutive entries of {@code trans}: the first
+ * {@link #LATIN1} entries are indexed directly by code points below 256, the remaining ones by the
+ * classes of an {@link Alphabet}, which cover the whole code point space. A state is encoded as its
+ * row offset shifted left by two, the lowest bit tells whether it is accepting, the next one whether
+ * it is {@linkplain #ACCEL accelerated}. Row 0 is the {@link #DEAD} state which loops onto itself,
+ * all missing transitions lead there, as do those into states from which no accepting state can be
+ * reached.
+ */
+final class DFATable {
+
+    static final int DEAD = 0;
+
+    static final int LATIN1 = 256;
+
+    /**
+     * Flag of states which loop onto themselves on all but at most {@link #MAX_EXITS} code points,
+     * the matcher skips ahead to the next of them instead of stepping through the loop.
+     */
+    static final int ACCEL = 2;
+
+    /**
+     * Flags of universal states, which are accepting and only lead to universal states: whatever
+     * follows, the input is accepted. Accelerated states are never accepting, so the combination is
+     * free.
+     */
+    static final int UNIVERSAL = ACCEL | 1;
+
+    static final int MAX_EXITS = 3;
+
+    final Alphabet alphabet;
+    final int stride;
+    final int[] trans;
+    final boolean[] accepting;
+    final int initial;
+
+    // the exit chars of accelerated states, indexed by state, padded to MAX_EXITS if more than one
+    private final char[][] exits;
+
+    static int newState(int row, boolean accepting) {
+        return (row << 2) | (accepting ? 1 : 0);
+    }
+
+    static int stateRow(int x) {
+        return x >>> 2;
+    }
+
+    static boolean isAcceptingState(int x) {
+        return (x & 1) != 0;
+    }
+
+    static boolean isAcceleratedState(int x) {
+        return (x & UNIVERSAL) == ACCEL;
+    }
+
+    static boolean isUniversalState(int x) {
+        return (x & UNIVERSAL) == UNIVERSAL;
+    }
+
+    private DFATable(Alphabet alphabet, int[] trans, boolean[] accepting, char[][] exits, int initial) {
+        this.alphabet = alphabet;
+        this.stride = LATIN1 + alphabet.size();
+        this.trans = trans;
+        this.accepting = accepting;
+        this.exits = exits;
+        this.initial = initial;
+    }
+
+    static <Re extends ReAlg<Re>> DFATable build(DFABuilder<Re> builder) {
+        // atoms: the intervals between consecutive boundaries of any derivative class
+        var points = new TreeSet<Integer>();
+        points.add(0);
+        for (var d : builder.delta.values())
+            for (var S : d.keySet())
+                for (var iv : S.toIntervalSet().asList()) {
+                    points.add(iv.a);
+                    points.add(iv.b);
+                }
+        points.remove(Alphabet.UNICODE_END);
+        var bounds = points.stream().mapToInt(Integer::intValue).toArray();
+
+        // state q of the builder lives in row q + 1, row 0 is DEAD
+        var n = Integer.max(builder.Q.size(), 1) + 1;
+        var accepting = new boolean[n];
+        for (var q : builder.accepting) accepting[q + 1] = true;
+
+        // columns[j][q] is the successor of state q on atom j
+        var columns = new int[bounds.length][n];
+        for (var ent : builder.delta.entrySet()) {
+            var q = ent.getKey() + 1;
+            for (var t : ent.getValue().entrySet())
+                for (var iv : t.getKey().toIntervalSet().asList())
+                    for (int j = atomOf(bounds, iv.a); j < bounds.length && bounds[j] < iv.b; ++j)
+                        columns[j][q] = t.getValue() + 1;
+        }
+
+        // atoms with equal columns can't be told apart by any state, they form one class
+        var atomClass = new int[bounds.length];
+        var classIds = new HashMap<IntBuffer, Integer>();
+        for (int j = 0; j < bounds.length; ++j)
+            atomClass[j] = classIds.computeIfAbsent(IntBuffer.wrap(columns[j]), ignored -> classIds.size());
+
+        var alphabet = Alphabet.fromAtoms(bounds, atomClass, classIds.size());
+        var targets = new int[n][alphabet.size()];
+        for (int j = 0; j < bounds.length; ++j)
+            for (int q = 0; q < n; ++q) targets[q][atomClass[j]] = columns[j][q];
+
+        return fromClassTargets(alphabet, targets, accepting);
+    }
+
+    /** Assembles the table from the successor state index of every state on every class. */
+    private static DFATable fromClassTargets(Alphabet alphabet, int[][] targets, boolean[] accepting) {
+        var n = targets.length;
+        var ncls = alphabet.size();
+
+        // states from which no accepting state is reachable are merged into DEAD
+        var preds = new ArrayList<List<Integer>>();
+        for (int q = 0; q < n; ++q) preds.add(new ArrayList<>());
+        for (int q = 1; q < n; ++q)
+            for (int c = 0; c < ncls; ++c) preds.get(targets[q][c]).add(q);
+        var live = new boolean[n];
+        var work = new ArrayDeque<Integer>();
+        for (int q = 1; q < n; ++q)
+            if (accepting[q]) {
+                live[q] = true;
+                work.add(q);
+            }
+        while (!work.isEmpty())
+            for (var p : preds.get(work.remove()))
+                if (!live[p]) {
+                    live[p] = true;
+                    work.add(p);
+                }
+        for (int q = 0; q < n; ++q)
+            for (int c = 0; c < ncls; ++c)
+                if (!live[q] || !live[targets[q][c]]) targets[q][c] = 0;
+
+        // universal states: the largest set of accepting states closed under all transitions
+        var universal = accepting.clone();
+        universal[0] = false;
+        for (var changed = true; changed; ) {
+            changed = false;
+            for (int q = 1; q < n; ++q)
+                if (universal[q])
+                    for (int c = 0; c < ncls; ++c)
+                        if (!universal[targets[q][c]]) {
+                            universal[q] = false;
+                            changed = true;
+                            break;
+                        }
+        }
+
+        var exits = new char[n][];
+        var flags = new int[n];
+        for (int q = 1; q < n; ++q) {
+            if (live[q] && !accepting[q]) exits[q] = exitChars(alphabet, targets[q], q);
+            if (exits[q] != null || universal[q]) flags[q] = ACCEL;
+        }
+
+        var stride = LATIN1 + ncls;
+        var trans = new int[n * stride];
+        for (int q = 0; q < n; ++q) {
+            var row = q * stride;
+            for (int c = 0; c < ncls; ++c) {
+                var dq = targets[q][c];
+                if (dq != 0) trans[row + LATIN1 + c] = newState(dq * stride, accepting[dq]) | flags[dq];
+            }
+            for (int ch = 0; ch < LATIN1; ++ch)
+                trans[row + ch] = trans[row + LATIN1 + alphabet.classOf(ch)];
+        }
+
+        var initial = live[1] ? newState(stride, accepting[1]) | flags[1] : DEAD;
+        return new DFATable(alphabet, trans, accepting, exits, initial);
+    }
+
+    /**
+     * Returns the code points leaving state {@code q}, or null if there are more than {@link
+     * #MAX_EXITS} or some of them are not a single char. Skipping over the looping chars is safe
+     * then, surrogates in particular always loop.
+     */
+    private static char[] exitChars(Alphabet alphabet, int[] targets, int q) {
+        var chars = new StringBuilder();
+        for (int c = 0; c < alphabet.size(); ++c) {
+            if (targets[c] == q)
+                continue;
+            var cs = alphabet.chars(c);
+            if (chars.length() + cs.cardinality() > MAX_EXITS)
+                return null;
+            for (var iv : cs.asList())
+                for (int cp = iv.a; cp < iv.b; ++cp) {
+                    if (cp >= Character.MIN_SUPPLEMENTARY_CODE_POINT || Character.isSurrogate((char) cp))
+                        return null;
+                    chars.append((char) cp);
+                }
+        }
+        if (chars.length() > 1)
+            while (chars.length() < MAX_EXITS) chars.append(chars.charAt(0));
+        return chars.toString().toCharArray();
+    }
+
+    /** Returns the position of the next exit char of the accelerated state {@code x}, or -1. */
+    private int skip(String s, int i, int x) {
+        var cs = exits[stateRow(x) / stride];
+        switch (cs.length) {
+            case 0:
+                return -1;
+            case 1:
+                return s.indexOf(cs[0], i);
+            default:
+                for (char a = cs[0], b = cs[1], c = cs[2]; i < s.length(); ++i) {
+                    var ch = s.charAt(i);
+                    if (ch == a || ch == b || ch == c)
+                        return i;
+                }
+                return -1;
+        }
+    }
+
+    /**
+     * Builds the table tracking leftmost-longest matches of {@code anchored} starting anywhere.
+     *
+     * <p>A state is the list of anchored states of all live match attempts, ordered by their start
+     * and with later attempts in an already present state dropped. Once an attempt accepts, all
+     * attempts starting after it are discarded and no new ones are started, so the state accepts
+     * exactly when the leftmost match seen so far can be extended. The scan ends in {@link #DEAD}
+     * once no attempt is left.
+     */
+    static DFATable leftmostLongest(DFATable anchored) {
+        var ncls = anchored.alphabet.size();
+        var ids = new HashMap<IntBuffer, Integer>();
+        var lists = new ArrayList<int[]>();
+        var targets = new ArrayList<int[]>();
+        lists.add(null);
+        targets.add(new int[ncls]);
+
+        // a list is encoded as {committed, q1, .., qk}
+        var threads = new ArrayList<Integer>();
+        threads.add(1);
+        anchored.internThreads(false, threads, ids, lists);
+
+        for (int i = 1; i < lists.size(); ++i) {
+            var list = lists.get(i);
+            var committed = list[0] != 0;
+            var row = new int[ncls];
+            for (int c = 0; c < ncls; ++c) {
+                threads.clear();
+                for (int k = 1; k < list.length; ++k) {
+                    var dq = stateRow(anchored.trans[list[k] * anchored.stride + LATIN1 + c]) / anchored.stride;
+                    if (dq != 0 && !threads.contains(dq)) threads.add(dq);
+                }
+                if (!committed && !threads.contains(1)) threads.add(1);
+                row[c] = anchored.internThreads(committed, threads, ids, lists);
+            }
+            targets.add(row);
+        }
+
+        var accepting = new boolean[lists.size()];
+        for (int i = 1; i < lists.size(); ++i) {
+            var list = lists.get(i);
+            accepting[i] = list[0] != 0 && anchored.accepting[list[list.length - 1]];
+        }
+        return fromClassTargets(anchored.alphabet, targets.toArray(new int[0][]), accepting);
+    }
+
+    private int internThreads(boolean committed, List<Integer> threads, Map<IntBuffer, Integer> ids, List<int[]> lists) {
+        var k = 0;
+        while (k < threads.size() && !accepting[threads.get(k)]) ++k;
+        if (k < threads.size()) {
+            committed = true;
+            threads = threads.subList(0, k + 1);
+        }
+        if (threads.isEmpty())
+            return DEAD;
+
+        var list = new int[threads.size() + 1];
+        list[0] = committed ? 1 : 0;
+        for (int i = 0; i < threads.size(); ++i) list[i + 1] = threads.get(i);
+        var id = ids.get(IntBuffer.wrap(list));
+        if (id == null) {
+            id = lists.size();
+            lists.add(list);
+            ids.put(IntBuffer.wrap(list), id);
+        }
+        return id;
+    }
+
+    private static int atomOf(int[] bounds, int cp) {
+        var i = Arrays.binarySearch(bounds, cp);
+        return i >= 0 ? i : -i - 2;
+    }
+
+    /** Whether all of {@code s} matches, stops early in dead and universal states. */
+    boolean fullMatch(String s) {
+        var x = initial;
+
+        for (int i = 0, n = s.length(); i < n; ) {
+            // a single test for both flags sharing the ACCEL bit
+            if ((x & ACCEL) != 0) {
+                if (isUniversalState(x))
+                    return true;
+                if ((i = skip(s, i, x)) < 0)
+                    return false;
+            }
+            var ch = s.charAt(i++);
+            if (ch < LATIN1) {
+                x = trans[stateRow(x) + ch];
+            } else {
+                int cp = ch;
+                if (Character.isHighSurrogate(ch) && i < n && Character.isLowSurrogate(s.charAt(i)))
+                    cp = Character.toCodePoint(ch, s.charAt(i++));
+                x = trans[stateRow(x) + LATIN1 + alphabet.classOf(cp)];
+            }
+            if (x == DEAD)
+                return false;
+        }
+
+        return isAcceptingState(x);
+    }
+
+    boolean lookingAt(String s) {
+        return earliestEnd(s, 0, null) >= 0;
+    }
+
+    /**
+     * Returns the end of the shortest match starting at {@code from}, or -1 if there is none.
+     *
+     * <p>For a table searching for matches anywhere, {@code prefix} may be a literal every match
+     * starts with. In the initial state no match is under way, so the scan jumps straight to the
+     * next occurrence of the prefix.
+     */
+    int earliestEnd(String s, int from, String prefix) {
+        var x = initial;
+        var i = from;
+
+        for (int n = s.length(); !isAcceptingState(x); ) {
+            if (x == initial && prefix != null && (i = s.indexOf(prefix, i)) < 0)
+                return -1;
+            if (isAcceleratedState(x) && (i = skip(s, i, x)) < 0)
+                return -1;
+            if (i >= n)
+                return -1;
+            var ch = s.charAt(i++);
+            if (ch < LATIN1) {
+                x = trans[stateRow(x) + ch];
+            } else {
+                int cp = ch;
+                if (Character.isHighSurrogate(ch) && i < n && Character.isLowSurrogate(s.charAt(i)))
+                    cp = Character.toCodePoint(ch, s.charAt(i++));
+                x = trans[stateRow(x) + LATIN1 + alphabet.classOf(cp)];
+            }
+            if (x == DEAD)
+                return -1;
+        }
+
+        return i;
+    }
+
+    /**
+     * Returns the end of the longest match starting at {@code from}, or -1 if there is none. The
+     * scan continues until the automaton dies or the input ends, {@code prefix} is used like in
+     * {@link #earliestEnd}.
+     */
+    int longestEnd(String s, int from, String prefix) {
+        var x = initial;
+        var end = isAcceptingState(x) ? from : -1;
+
+        for (int i = from, n = s.length(); i < n; ) {
+            if (isUniversalState(x))
+                return n;
+            if (x == initial && prefix != null && (i = s.indexOf(prefix, i)) < 0)
+                break;
+            if (isAcceleratedState(x) && (i = skip(s, i, x)) < 0)
+                break;
+            var ch = s.charAt(i++);
+            if (ch < LATIN1) {
+                x = trans[stateRow(x) + ch];
+            } else {
+                int cp = ch;
+                if (Character.isHighSurrogate(ch) && i < n && Character.isLowSurrogate(s.charAt(i)))
+                    cp = Character.toCodePoint(ch, s.charAt(i++));
+                x = trans[stateRow(x) + LATIN1 + alphabet.classOf(cp)];
+            }
+            if (x == DEAD)
+                break;
+            if (isAcceptingState(x))
+                end = i;
+        }
+
+        return end;
+    }
+
+    /**
+     * Like {@link #longestEnd}, but reads {@code s} backwards from {@code end} down to {@code from},
+     * for a table compiled from a reversed expression. Returns the smallest start found, or -1.
+     */
+    int longestStart(String s, int end, int from) {
+        var x = initial;
+        var start = isAcceptingState(x) ? end : -1;
+
+        for (int i = end; i > from; ) {
+            if (isUniversalState(x))
+                return from;
+            var ch = s.charAt(--i);
+            if (ch < LATIN1) {
+                x = trans[stateRow(x) + ch];
+            } else {
+                int cp = ch;
+                if (Character.isLowSurrogate(ch) && i > from && Character.isHighSurrogate(s.charAt(i - 1)))
+                    cp = Character.toCodePoint(s.charAt(--i), ch);
+                x = trans[stateRow(x) + LATIN1 + alphabet.classOf(cp)];
+            }
+            if (x == DEAD)
+                break;
+            if (isAcceptingState(x))
+                start = i;
+        }
+
+        return start;
+    }
+
+    private CharSet classChars(int c) {
+        return CharSet.from(alphabet.chars(c));
+    }
+
+    private static String toPattern(CharSet cs) {
+        if (cs.complement || cs.size() <= Alphabet.UNICODE_END / 2)
+            return cs.toPattern();
+        var all = IntervalSet.of(Interval.of(0, Alphabet.UNICODE_END));
+        return CharSet.from(all.difference(cs.chars), true)
+                .toPattern();
+    }
+
+    @Override
+    public String toString() {
+        var sb = new StringBuilder("DFA {\n");
+
+        for (int q = 1; q < accepting.length; ++q) {
+            var row = q * stride;
+            sb.append("  S")
+                    .append(q)
+                    .append(accepting[q] ? " F" : "  ")
+                    .append(row == stateRow(initial) ? " > {" : "   {");
+
+            var targets = new TreeMap<Integer, CharSet>();
+            for (int c = 0; c < alphabet.size(); ++c) {
+                var x = trans[row + LATIN1 + c];
+                if (x != DEAD)
+                    targets.merge(stateRow(x) / stride, classChars(c), CharSet::union);
+            }
+            if (targets.isEmpty()) {
+                sb.append("}\n");
+                continue;
+            }
+            sb.append('\n');
+            for (var t : targets.entrySet())
+                sb.append("    ")
+                        .append(toPattern(t.getValue()))
+                        .append(" -> S")
+                        .append(t.getKey())
+                        .append('\n');
+            sb.append("  }\n");
+        }
+
+        return sb.append("}").toString();
+    }
+}
@@ -0,0 +1,119 @@
+package de.sfxr.rederiv;
+
+import static de.sfxr.rederiv.DFATable.DEAD;
+import static de.sfxr.rederiv.DFATable.isAcceptingState;
+import static de.sfxr.rederiv.DFATable.stateRow;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Finds the lines of UTF-8 encoded files which contain a match, scanning memory mapped windows of
+ * the file with the byte level search automaton of a {@link DFA}.
+ *
+ * <p>Lines are terminated by {@code '\n'}, which is not part of the line. Once a line is decided
+ * the rest of it is skipped looking only for the terminator. The automaton state is carried across
+ * windows, and a window starts at the beginning of the current line where possible, so a matching
+ * line can be handed out as a view of the mapping. Nothing is copied for non matching lines.
+ */
+public final class Grep {
+
+    static final int DEFAULT_WINDOW = 1 << 30;
+
+    @FunctionalInterface
+    public interface LineHandler {
+        /**
+         * Receives a matching line starting at byte {@code offset} of the file. The buffer is a read
+         * only view of the line, valid for the duration of the call only. A buffer holds less than 2
+         * GiB, a longer matching line fails the scan with an {@link IOException}.
+         */
+        void onMatch(long offset, ByteBuffer line) throws IOException;
+    }
+
+    private final Utf8Table table;
+    private final int window;
+
+    Grep(Utf8Table table, int window) {
+        if (window <= 0)
+            throw new IllegalArgumentException("window must be positive");
+        this.table = table;
+        this.window = window;
+    }
+
+    /** Returns the number of lines in {@code file} containing a match. */
+    public long count(Path file) throws IOException {
+        return scan(file, null);
+    }
+
+    /**
+     * Passes every line of {@code file} containing a match to {@code handler}, in order.
+     *
+     * @return the number of matching lines
+     */
+    public long scan(Path file, LineHandler handler) throws IOException {
+        try (var ch = FileChannel.open(file, StandardOpenOption.READ)) {
+            return scan(ch, handler);
+        }
+    }
+
+    /** Like {@link #scan(Path, LineHandler)}, reading from the start of {@code ch}. */
+    public long scan(FileChannel ch, LineHandler handler) throws IOException {
+        var trans = table.trans;
+        var size = ch.size();
+        var count = 0L;
+        var x = table.initial;
+        var lineStart = 0L;
+        ByteBuffer buf = null;
+        var base = 0L;
+
+        for (var pos = 0L; pos < size; ) {
+            // lines longer than a window continue in a window of their own
+            base = pos - lineStart < window ? lineStart : pos;
+            var n = (int) Long.min(window, size - base);
+            buf = ch.map(FileChannel.MapMode.READ_ONLY, base, n);
+
+            for (int i = (int) (pos - base); i < n; ++i) {
+                var b = buf.get(i);
+                if (b != '\n') {
+                    if (x != DEAD && !isAcceptingState(x)) {
+                        x = trans[stateRow(x) + (b & 0xff)];
+                    } else {
+                        while (i + 1 < n && buf.get(i + 1) != '\n') ++i;
+                    }
+                    continue;
+                }
+                if (isAcceptingState(x)) {
+                    ++count;
+                    if (handler != null) report(ch, buf, base, lineStart, base + i, handler);
+                }
+                lineStart = base + i + 1;
+                x = table.initial;
+            }
+            pos = base + n;
+        }
+
+        if (lineStart < size && isAcceptingState(x)) {
+            ++count;
+            if (handler != null) report(ch, buf, base, lineStart, size, handler);
+        }
+        return count;
+    }
+
+    private static void report(FileChannel ch, ByteBuffer buf, long base, long start, long end, LineHandler handler)
+            throws IOException {
+        ByteBuffer line;
+        if (start >= base) {
+            line = buf.duplicate();
+            line.position((int) (start - base)).limit((int) (end - base));
+            line = line.slice();
+        } else {
+            if (end - start > Integer.MAX_VALUE)
+                throw new IOException("matching line at offset " + start + " is too long to map: " + (end - start) + " bytes");
+            line = ch.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+        }
+        handler.onMatch(start, line.asReadOnlyBuffer());
+    }
+}
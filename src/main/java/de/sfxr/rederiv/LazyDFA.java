@@ -0,0 +1,155 @@
+package de.sfxr.rederiv;
+
+import static de.sfxr.rederiv.DFATable.DEAD;
+import static de.sfxr.rederiv.DFATable.isAcceptingState;
+import static de.sfxr.rederiv.DFATable.newState;
+import static de.sfxr.rederiv.DFATable.stateRow;
+
+import java.util.*;
+
+/**
+ * A DFA whose states are derived on demand while matching.
+ *
+ * <p>Transitions are computed the first time they are taken and cached in a table using the state
+ * encoding of {@link DFATable}. Once the cache would grow beyond its budget, it is flushed and
+ * rebuilt starting from the current state, so memory stays bounded and each input character costs
+ * at most one derivative. The classes of the alphabet are derived from the character sets occurring
+ * in the expression, they are valid for all of its derivatives.
+ *
+ * <p>Instances are not thread safe.
+ */
+public final class LazyDFA<Re extends ReAlg<Re>> {
+
+    public static final long DEFAULT_CACHE_BYTES = 1L << 21;
+
+    // rough cost of a cached state besides its row: the derivative and the map entry
+    private static final int STATE_OVERHEAD = 256;
+
+    private static final int UNKNOWN = -1;
+
+    private final Re re;
+    private final Alphabet alphabet;
+    private final long cacheBytes;
+    private final Cache anchored;
+    private Cache search;
+
+    private LazyDFA(Re re, long cacheBytes) {
+        this.re = Objects.requireNonNull(re);
+        this.alphabet = Alphabet.fromCharSets(re.charSets());
+        this.cacheBytes = cacheBytes;
+        this.anchored = new Cache(re);
+    }
+
+    public static <Re extends ReAlg<Re>> LazyDFA<Re> compile(Re re) {
+        return compile(re, DEFAULT_CACHE_BYTES);
+    }
+
+    /** Compiles {@code re}, each of the state caches uses about {@code cacheBytes} at most. */
+    public static <Re extends ReAlg<Re>> LazyDFA<Re> compile(Re re, long cacheBytes) {
+        if (cacheBytes <= 0)
+            throw new IllegalArgumentException("cacheBytes must be positive");
+        return new LazyDFA<>(re, cacheBytes);
+    }
+
+    /** Same semantics as {@link DFA#matches(String)}. */
+    public boolean matches(String s) {
+        if (s == null)
+            throw new NullPointerException();
+        return anchored.earliestEnd(s, 0) >= 0;
+    }
+
+    /** Same semantics as {@link DFA#find(String, int)}. */
+    public int find(String s, int fromIndex) {
+        if (fromIndex < 0 || fromIndex > s.length())
+            throw new IndexOutOfBoundsException("Illegal start index");
+        if (search == null)
+            search = new Cache(re.anyChar().many().seq(re));
+        return search.earliestEnd(s, fromIndex);
+    }
+
+    public int find(String s) {
+        return find(s, 0);
+    }
+
+    public Re re() { return re; }
+
+    /** Number of times any of the caches was flushed. */
+    long flushes() {
+        return anchored.flushes + (search == null ? 0 : search.flushes);
+    }
+
+    private final class Cache {
+        final Re start;
+        final int stride = alphabet.size();
+        final Map<Re, Integer> ids = new HashMap<>();
+        final List<Re> states = new ArrayList<>();
+        int[] trans;
+        int initial;
+        long flushes;
+
+        Cache(Re start) {
+            this.start = start;
+            reset();
+        }
+
+        private void reset() {
+            ids.clear();
+            states.clear();
+            trans = new int[16 * stride];
+            states.add(null); // DEAD, its row stays all zero
+            initial = add(start);
+        }
+
+        private long bytesUsed() {
+            return (long) states.size() * (4L * stride + STATE_OVERHEAD);
+        }
+
+        private int add(Re q) {
+            if (q.isVoid())
+                return DEAD;
+            var x = ids.get(q);
+            if (x != null)
+                return x;
+            var row = states.size() * stride;
+            if (row + stride > trans.length)
+                trans = Arrays.copyOf(trans, Integer.max(row + stride, 2 * trans.length));
+            Arrays.fill(trans, row, row + stride, UNKNOWN);
+            states.add(q);
+            x = newState(row, q.matchesEmpty());
+            ids.put(q, x);
+            return x;
+        }
+
+        private int step(int x, int c) {
+            var q = states.get(stateRow(x) / stride);
+            var dq = q.deriv(alphabet.representative(c));
+            if (!dq.isVoid() && !ids.containsKey(dq) && bytesUsed() >= cacheBytes) {
+                ++flushes;
+                reset();
+                x = add(q);
+            }
+            var y = add(dq);
+            trans[stateRow(x) + c] = y;
+            return y;
+        }
+
+        int earliestEnd(String s, int from) {
+            var x = initial;
+            var i = from;
+
+            for (int n = s.length(); !isAcceptingState(x); ) {
+                if (i >= n)
+                    return -1;
+                var cp = s.codePointAt(i);
+                i += Character.charCount(cp);
+                var c = alphabet.classOf(cp);
+                var y = trans[stateRow(x) + c];
+                x = y != UNKNOWN ? y : step(x, c);
+                if (x == DEAD)
+                    return -1;
+            }
+
+            return i;
+        }
+    }
+}
@@ -0,0 +1,147 @@
+package de.sfxr.rederiv;
+
+import static de.sfxr.rederiv.DFATable.DEAD;
+import static de.sfxr.rederiv.DFATable.LATIN1;
+import static de.sfxr.rederiv.DFATable.isAcceptingState;
+import static de.sfxr.rederiv.DFATable.stateRow;
+
+import java.util.Spliterator;
+import java.util.function.LongConsumer;
+
+/**
+ * Yields the spans of the matching lines of a buffer, packed like {@link DFA#findSpan}.
+ *
+ * <p>Lines are terminated by {@code '\n'}, which is not part of the span, a final line without
+ * terminator is included unless it is empty. Splitting happens at the first line boundary after the
+ * middle of the remaining range, so a parallel stream matches disjoint lines on every worker
+ * without allocating anything per line.
+ */
+abstract class LineSpliterator implements Spliterator.OfLong {
+
+    // ranges shorter than this are not worth splitting
+    static final int MIN_SPLIT = 1 << 12;
+
+    // the flags of a state which decide the outcome once they are all set
+    final int stop;
+    int pos;
+    final int end;
+
+    LineSpliterator(int stop, int pos, int end) {
+        this.stop = stop;
+        this.pos = pos;
+        this.end = end;
+    }
+
+    abstract int indexOfNewline(int from, int to);
+
+    abstract boolean matches(int from, int to);
+
+    abstract LineSpliterator prefix(int to);
+
+    @Override
+    public boolean tryAdvance(LongConsumer action) {
+        while (pos < end) {
+            var start = pos;
+            var nl = indexOfNewline(start, end);
+            var lineEnd = nl < 0 ? end : nl;
+            pos = nl < 0 ? end : nl + 1;
+            if (matches(start, lineEnd)) {
+                action.accept(DFA.span(start, lineEnd));
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public Spliterator.OfLong trySplit() {
+        if (end - pos < MIN_SPLIT)
+            return null;
+        var nl = indexOfNewline(pos + (end - pos) / 2, end);
+        if (nl < 0 || nl + 1 >= end)
+            return null;
+        var prefix = prefix(nl + 1);
+        pos = nl + 1;
+        return prefix;
+    }
+
+    @Override
+    public long estimateSize() {
+        return end - pos;
+    }
+
+    @Override
+    public int characteristics() {
+        return ORDERED | DISTINCT | NONNULL | IMMUTABLE;
+    }
+
+    static final class Chars extends LineSpliterator {
+        private final DFATable table;
+        private final char[] cs;
+
+        Chars(DFATable table, int stop, char[] cs, int pos, int end) {
+            super(stop, pos, end);
+            this.table = table;
+            this.cs = cs;
+        }
+
+        @Override
+        int indexOfNewline(int from, int to) {
+            for (int i = from; i < to; ++i)
+                if (cs[i] == '\n') return i;
+            return -1;
+        }
+
+        @Override
+        boolean matches(int from, int to) {
+            var trans = table.trans;
+            var alphabet = table.alphabet;
+            var x = table.initial;
+            for (int i = from; i < to && x != DEAD && (x & stop) != stop; ) {
+                var ch = cs[i++];
+                if (ch < LATIN1) {
+                    x = trans[stateRow(x) + ch];
+                } else {
+                    int cp = ch;
+                    if (Character.isHighSurrogate(ch) && i < to && Character.isLowSurrogate(cs[i]))
+                        cp = Character.toCodePoint(ch, cs[i++]);
+                    x = trans[stateRow(x) + LATIN1 + alphabet.classOf(cp)];
+                }
+            }
+            return isAcceptingState(x);
+        }
+
+        @Override
+        LineSpliterator prefix(int to) {
+            return new Chars(table, stop, cs, pos, to);
+        }
+    }
+
+    static final class Bytes extends LineSpliterator {
+        private final Utf8Table table;
+        private final byte[] b;
+
+        Bytes(Utf8Table table, int stop, byte[] b, int pos, int end) {
+            super(stop, pos, end);
+            this.table = table;
+            this.b = b;
+        }
+
+        @Override
+        int indexOfNewline(int from, int to) {
+            for (int i = from; i < to; ++i)
+                if (b[i] == '\n') return i;
+            return -1;
+        }
+
+        @Override
+        boolean matches(int from, int to) {
+            return isAcceptingState(table.run(stop, b, from, to));
+        }
+
+        @Override
+        LineSpliterator prefix(int to) {
+            return new Bytes(table, stop, b, pos, to);
+        }
+    }
+}
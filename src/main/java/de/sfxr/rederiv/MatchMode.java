@@ -0,0 +1,16 @@
+package de.sfxr.rederiv;
+
+/** What it takes for an input to match a pattern, see {@link DFA#matches(String, MatchMode)}. */
+public enum MatchMode {
+    /** The whole input matches, like {@link java.util.regex.Matcher#matches()}. */
+    FULL,
+    /** Some prefix of the input matches, like {@link java.util.regex.Matcher#lookingAt()}. */
+    PREFIX,
+    /** Some substring of the input matches, like {@link java.util.regex.Matcher#find()}. */
+    EARLIEST;
+
+    /** The flags of an automaton state which decide the outcome once they are all set. */
+    int stopFlags() {
+        return this == FULL ? DFATable.UNIVERSAL : 1;
+    }
+}
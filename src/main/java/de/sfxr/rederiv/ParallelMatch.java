@@ -0,0 +1,140 @@
+package de.sfxr.rederiv;
+
+import static de.sfxr.rederiv.DFATable.DEAD;
+import static de.sfxr.rederiv.DFATable.isAcceptingState;
+import static de.sfxr.rederiv.DFATable.newState;
+import static de.sfxr.rederiv.DFATable.stateRow;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Matches a large UTF-8 input by splitting it into chunks which are scanned on a ForkJoin pool.
+ *
+ * <p>The state a chunk is entered in is unknown before its predecessors are done, so each chunk is
+ * scanned from every code point state of the {@link Utf8Table} at once. The result maps each entry
+ * state to the exit state. Runs which reach the same state continue as one, so for most automata
+ * the chunk is scanned by a single run after a few bytes. Adjacent chunks are combined by composing
+ * their maps, the map of the whole input then yields the outcome from the initial state.
+ *
+ * <p>Chunks are split before a byte which is not a continuation byte where possible, a run ending
+ * inside of a multi byte sequence then dies on the first byte of the next chunk.
+ */
+final class ParallelMatch extends RecursiveTask<int[]> {
+
+    private static final long serialVersionUID = 1L;
+
+    static final int DEFAULT_MIN_CHUNK = 1 << 16;
+
+    // bytes scanned by each run before runs in the same state are merged
+    private static final int BLOCK = 256;
+
+    private final Utf8Table table;
+    // the flags of a state which decide the outcome once they are all set
+    private final int stop;
+    private final ByteBuffer buf;
+    private final int from;
+    private final int to;
+    private final int minChunk;
+
+    private ParallelMatch(Utf8Table table, int stop, ByteBuffer buf, int from, int to, int minChunk) {
+        this.table = table;
+        this.stop = stop;
+        this.buf = buf;
+        this.from = from;
+        this.to = to;
+        this.minChunk = minChunk;
+    }
+
+    /** Matches the bytes between position and limit of {@code buf}, the buffer is left untouched. */
+    static boolean matches(Utf8Table table, MatchMode mode, ByteBuffer buf, int minChunk) {
+        if (minChunk <= 0)
+            throw new IllegalArgumentException("minChunk must be positive");
+        var stop = mode.stopFlags();
+        var x = table.initial;
+        if (buf.remaining() <= minChunk) {
+            x = scan(table.trans, stop, buf, x, buf.position(), buf.limit());
+        } else {
+            var map = new ParallelMatch(table, stop, buf, buf.position(), buf.limit(), minChunk).invoke();
+            x = follow(table, stop, map, x);
+        }
+        return isAcceptingState(x);
+    }
+
+    @Override
+    protected int[] compute() {
+        if (to - from <= minChunk)
+            return scanAll();
+
+        var mid = from + (to - from) / 2;
+        // at most three continuation bytes follow a code point state
+        for (int k = 0; k < 3 && mid < to && (buf.get(mid) & 0xc0) == 0x80; ++k) ++mid;
+        if (mid == to)
+            return scanAll();
+
+        var left = new ParallelMatch(table, stop, buf, from, mid, minChunk);
+        left.fork();
+        var right = new ParallelMatch(table, stop, buf, mid, to, minChunk).compute();
+        var map = left.join();
+        for (int q = 1; q < map.length; ++q) map[q] = follow(table, stop, right, map[q]);
+        return map;
+    }
+
+    /** The state reached from {@code x} by the input of {@code map}. */
+    private static int follow(Utf8Table table, int stop, int[] map, int x) {
+        if (x == DEAD || (x & stop) == stop)
+            return x;
+        var q = stateRow(x) / Utf8Table.BYTES;
+        return q < table.states ? map[q] : DEAD;
+    }
+
+    private static int scan(int[] trans, int stop, ByteBuffer buf, int x, int from, int to) {
+        for (int i = from; i < to && x != DEAD && (x & stop) != stop; )
+            x = trans[stateRow(x) + (buf.get(i++) & 0xff)];
+        return x;
+    }
+
+    /** Scans the chunk from every code point state, merging runs as they meet. */
+    private int[] scanAll() {
+        var trans = table.trans;
+        var n = table.states;
+
+        // run[owner[q]] is the current state of the run entered in state q
+        var owner = new int[n];
+        var runs = new int[n];
+        var k = 0;
+        for (int q = 1; q < n; ++q) {
+            owner[q] = k;
+            runs[k++] = newState(q * Utf8Table.BYTES, false);
+        }
+
+        var merged = new int[trans.length / Utf8Table.BYTES];
+        var remap = new int[n];
+        var i = from;
+        while (k > 1 && i < to) {
+            var end = Integer.min(to, i + BLOCK);
+            for (int r = 0; r < k; ++r) runs[r] = scan(trans, stop, buf, runs[r], i, end);
+
+            // runs in the same state agree from here on
+            var m = 0;
+            for (int r = 0; r < k; ++r) {
+                var row = stateRow(runs[r]) / Utf8Table.BYTES;
+                var slot = merged[row];
+                if (slot == 0 || runs[slot - 1] != runs[r]) {
+                    runs[m] = runs[r];
+                    merged[row] = slot = ++m;
+                }
+                remap[r] = slot - 1;
+            }
+            for (int r = 0; r < m; ++r) merged[stateRow(runs[r]) / Utf8Table.BYTES] = 0;
+            for (int q = 1; q < n; ++q) owner[q] = remap[owner[q]];
+            k = m;
+            i = end;
+        }
+        if (k == 1) runs[0] = scan(trans, stop, buf, runs[0], i, to);
+
+        var map = new int[n];
+        for (int q = 1; q < n; ++q) map[q] = runs[owner[q]];
+        return map;
+    }
+}
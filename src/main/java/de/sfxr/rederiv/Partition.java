@@ -0,0 +1,172 @@
+package de.sfxr.rederiv;
+
+import static de.sfxr.rederiv.Alphabet.UNICODE_END;
+
+import de.sfxr.rederiv.support.Interval;
+import de.sfxr.rederiv.support.IntervalSet;
+import java.util.*;
+
+/**
+ * A partition of the code points into classes, stored as the sorted segments between consecutive
+ * class boundaries.
+ *
+ * <p>Two partitions are refined by a single sweep over both segment lists, which labels each
+ * resulting segment with the pair of classes it lies in. Classes are numbered in order of first
+ * appearance and adjacent segments of the same class are merged, so a refinement never contains
+ * empty or duplicate classes. Several partitions are refined pairwise in a balanced order, k
+ * partitions with N segments in total take O(N log k).
+ */
+final class Partition {
+
+    static final Partition ALL = new Partition(new int[] {0}, new int[] {0}, 1);
+
+    // segment s covers starts[s] up to the next start, the last one up to UNICODE_END
+    private final int[] starts;
+    private final int[] ids;
+    private final int size;
+    private volatile Set<CharSet> classes;
+
+    private Partition(int[] starts, int[] ids, int size) {
+        this.starts = starts;
+        this.ids = ids;
+        this.size = size;
+    }
+
+    /** The partition into {@code cs} and its complement. */
+    static Partition of(CharSet cs) {
+        return of(List.of(cs, cs.complement()));
+    }
+
+    /**
+     * The partition into {@code classes}, which have to be disjoint. Code points in none of them
+     * form a class of their own.
+     */
+    static Partition of(Collection<CharSet> classes) {
+        var ivs = new ArrayList<Interval<Void>>();
+        var cls = new ArrayList<Integer>();
+        var c = 0;
+        for (var cs : classes) {
+            if (cs.isEmptySet()) continue;
+            for (var iv : cs.toIntervalSet().asList()) {
+                ivs.add(iv);
+                cls.add(c);
+            }
+            ++c;
+        }
+        // sorted by start, each together with its index
+        var order = new long[ivs.size()];
+        for (int i = 0; i < order.length; ++i) order[i] = (long) ivs.get(i).a << 32 | i;
+        Arrays.sort(order);
+
+        var b = new Builder(2 * order.length + 1);
+        var renumber = new int[c + 1];
+        Arrays.fill(renumber, -1);
+        var size = 0;
+        var pos = 0;
+        for (var o : order) {
+            var iv = ivs.get((int) o);
+            if (pos < iv.a) {
+                if (renumber[c] < 0) renumber[c] = size++;
+                b.add(pos, renumber[c]);
+            }
+            var k = cls.get((int) o);
+            if (renumber[k] < 0) renumber[k] = size++;
+            b.add(iv.a, renumber[k]);
+            pos = iv.b;
+        }
+        if (pos < UNICODE_END) {
+            if (renumber[c] < 0) renumber[c] = size++;
+            b.add(pos, renumber[c]);
+        }
+        return b.build(size);
+    }
+
+    int size() {
+        return size;
+    }
+
+    /** The partition into the classes of code points which share a class in this and {@code p}. */
+    Partition refine(Partition p) {
+        if (p == ALL || p == this) return this;
+        if (this == ALL) return p;
+
+        var b = new Builder(starts.length + p.starts.length);
+        var pairs = new HashMap<Long, Integer>();
+        for (int i = 0, j = 0, pos = 0; pos < UNICODE_END; ) {
+            var key = (long) ids[i] << 32 | p.ids[j];
+            var id = pairs.get(key);
+            if (id == null) pairs.put(key, id = pairs.size());
+            b.add(pos, id);
+
+            var end = i + 1 < starts.length ? starts[i + 1] : UNICODE_END;
+            var pend = j + 1 < p.starts.length ? p.starts[j + 1] : UNICODE_END;
+            if (end <= pend) ++i;
+            if (pend <= end) ++j;
+            pos = Integer.min(end, pend);
+        }
+        return b.build(pairs.size());
+    }
+
+    static Partition refine(List<Partition> ps) {
+        if (ps.isEmpty()) return ALL;
+        var level = new ArrayList<>(ps);
+        while (level.size() > 1) {
+            var next = new ArrayList<Partition>((level.size() + 1) / 2);
+            for (int i = 0; i + 1 < level.size(); i += 2) next.add(level.get(i).refine(level.get(i + 1)));
+            if (level.size() % 2 != 0) next.add(level.get(level.size() - 1));
+            level = next;
+        }
+        return level.get(0);
+    }
+
+    /** The classes in order of their numbering, a class containing both ends is stored complemented. */
+    Set<CharSet> classes() {
+        var cs = classes;
+        if (cs != null)
+            return cs;
+
+        var ivs = new ArrayList<List<Interval<Void>>>();
+        for (int c = 0; c < size; ++c) ivs.add(new ArrayList<>());
+        for (int s = 0; s < starts.length; ++s) {
+            var end = s + 1 < starts.length ? starts[s + 1] : UNICODE_END;
+            ivs.get(ids[s]).add(Interval.of(starts[s], end));
+        }
+
+        var all = IntervalSet.of(Interval.unicode());
+        var set = new LinkedHashSet<CharSet>();
+        for (var civs : ivs) {
+            var chars = IntervalSet.buildDestructive(civs, null);
+            var wraps = chars.containsPoint(0) && chars.containsPoint(UNICODE_END - 1);
+            set.add(wraps ? CharSet.from(all.difference(chars), true) : CharSet.from(chars));
+        }
+        classes = cs = Collections.unmodifiableSet(set);
+        return cs;
+    }
+
+    /** Appends segments, merging a segment into its predecessor of the same class. */
+    private static final class Builder {
+        int[] starts;
+        int[] ids;
+        int n;
+
+        Builder(int capacity) {
+            starts = new int[Integer.max(capacity, 1)];
+            ids = new int[starts.length];
+        }
+
+        void add(int start, int id) {
+            if (n > 0 && ids[n - 1] == id)
+                return;
+            if (n == starts.length) {
+                starts = Arrays.copyOf(starts, 2 * n);
+                ids = Arrays.copyOf(ids, 2 * n);
+            }
+            starts[n] = start;
+            ids[n++] = id;
+        }
+
+        Partition build(int size) {
+            return new Partition(Arrays.copyOf(starts, n), Arrays.copyOf(ids, n), size);
+        }
+    }
+}
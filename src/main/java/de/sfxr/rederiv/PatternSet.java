@@ -0,0 +1,178 @@
+package de.sfxr.rederiv;
+
+import static de.sfxr.rederiv.DFATable.DEAD;
+import static de.sfxr.rederiv.DFATable.LATIN1;
+import static de.sfxr.rederiv.DFATable.isAcceptingState;
+import static de.sfxr.rederiv.DFATable.stateRow;
+
+import java.nio.ByteBuffer;
+import java.util.*;
+import java.util.function.IntConsumer;
+
+/**
+ * Matches a set of patterns in a single pass, using the product automaton over a {@link ReVec}.
+ *
+ * <p>A component which matches at the current position is replaced by the empty expression, it
+ * fires in this state and is void in all of its successors. Every pattern therefore fires at most
+ * once, and the automaton dies as soon as all patterns have either matched or can no longer match.
+ * The accepting states record which components fire there.
+ *
+ * <p>Patterns are anchored at the start of the input, a pattern matches if it matches some prefix
+ * of it, like {@link java.util.regex.Matcher#lookingAt}. A rule which may match anywhere in a line
+ * needs a leading {@code .*}.
+ *
+ * <p>For scanning many UTF-8 streams at once, the state of a stream is a single int which the
+ * caller stores wherever it likes, see {@link #streamStart} and {@link #streamScan}. It includes any
+ * partially read UTF-8 sequence, no per stream objects are needed.
+ */
+public final class PatternSet<Re extends ReAlg<Re>> {
+
+    private final ReVec<Re> patterns;
+    private final DFATable table;
+    private final BitSet[] fires;
+    // accepting states all of whose successors are dead, a stream is done once it fires there
+    private final BitSet last;
+    private volatile Utf8Table utf8;
+
+    private PatternSet(ReVec<Re> patterns, DFATable table, BitSet[] fires) {
+        this.patterns = patterns;
+        this.table = table;
+        this.fires = fires;
+        this.last = new BitSet(fires.length);
+        for (int q = 1; q < fires.length; ++q) {
+            if (fires[q] == null) continue;
+            var done = true;
+            for (int c = 0; c < table.stride && done; ++c) done = table.trans[q * table.stride + c] == DEAD;
+            if (done) last.set(q);
+        }
+    }
+
+    public static <Re extends ReAlg<Re>> PatternSet<Re> compile(List<Re> patterns) {
+        var vec = new ReVec<>(new ArrayList<>(patterns));
+        var builder = new DFABuilder<ReVec<Re>>(PatternSet::settle);
+        builder.build(vec);
+        var table = DFATable.build(builder);
+
+        // state q of the builder lives in row q + 1
+        var fires = new BitSet[table.accepting.length];
+        for (var ent : builder.Q.entrySet()) fires[ent.getValue() + 1] = firing(ent.getKey());
+        return new PatternSet<>(vec, table, fires);
+    }
+
+    private static <Re extends ReAlg<Re>> ReVec<Re> settle(ReVec<Re> vec) {
+        List<Re> res = null;
+        for (int i = 0; i < vec.size(); ++i) {
+            var re = vec.get(i);
+            if (!re.matchesEmpty() || re.equals(re.asEmpty()))
+                continue;
+            if (res == null) res = new ArrayList<>(vec);
+            res.set(i, re.asEmpty());
+        }
+        return res == null ? vec : new ReVec<>(res);
+    }
+
+    private static <Re extends ReAlg<Re>> BitSet firing(ReVec<Re> vec) {
+        var bits = new BitSet(vec.size());
+        for (int i = 0; i < vec.size(); ++i)
+            if (vec.get(i).matchesEmpty()) bits.set(i);
+        return bits;
+    }
+
+    /** Returns the indices of all patterns which match a prefix of {@code s}, see the anchoring above. */
+    public BitSet matches(String s) {
+        var matched = new BitSet(patterns.size());
+        var x = table.initial;
+        if (isAcceptingState(x))
+            matched.or(fires[stateRow(x) / table.stride]);
+
+        var trans = table.trans;
+        var alphabet = table.alphabet;
+        for (int i = 0, n = s.length(); i < n && x != DEAD; ) {
+            var ch = s.charAt(i++);
+            if (ch < LATIN1) {
+                x = trans[stateRow(x) + ch];
+            } else {
+                int cp = ch;
+                if (Character.isHighSurrogate(ch) && i < n && Character.isLowSurrogate(s.charAt(i)))
+                    cp = Character.toCodePoint(ch, s.charAt(i++));
+                x = trans[stateRow(x) + LATIN1 + alphabet.classOf(cp)];
+            }
+            if (isAcceptingState(x))
+                matched.or(fires[stateRow(x) / table.stride]);
+        }
+
+        return matched;
+    }
+
+    /**
+     * Starts a new stream, reporting the patterns matching the empty string to {@code onMatch}.
+     *
+     * @return the initial stream state
+     */
+    public int streamStart(IntConsumer onMatch) {
+        var x = utf8().initial;
+        return isAcceptingState(x) ? fire(x, onMatch) : x;
+    }
+
+    /**
+     * Continues a stream in state {@code state} with the next chunk of UTF-8 encoded input, each
+     * pattern is reported to {@code onMatch} once, right after the end of its first match.
+     *
+     * @return the new stream state, {@link #isStreamDone} tells whether further input matters
+     */
+    public int streamScan(int state, byte[] b, int off, int len, IntConsumer onMatch) {
+        Objects.checkFromIndexSize(off, len, b.length);
+        var trans = utf8().trans;
+        var x = state;
+        for (int i = off, end = off + len; i < end && x != DEAD; ) {
+            x = trans[stateRow(x) + (b[i++] & 0xff)];
+            if (isAcceptingState(x))
+                x = fire(x, onMatch);
+        }
+        return x;
+    }
+
+    /** Like {@link #streamScan(int, byte[], int, int, IntConsumer)}, scans position to limit. */
+    public int streamScan(int state, ByteBuffer buf, IntConsumer onMatch) {
+        var trans = utf8().trans;
+        var x = state;
+        for (int i = buf.position(), end = buf.limit(); i < end && x != DEAD; ) {
+            x = trans[stateRow(x) + (buf.get(i++) & 0xff)];
+            if (isAcceptingState(x))
+                x = fire(x, onMatch);
+        }
+        return x;
+    }
+
+    /** Whether every pattern has either matched or can't match anymore in this stream state. */
+    public static boolean isStreamDone(int state) {
+        return state == DEAD;
+    }
+
+    private int fire(int x, IntConsumer onMatch) {
+        var q = stateRow(x) / Utf8Table.BYTES;
+        var bits = fires[q];
+        for (int i = bits.nextSetBit(0); i >= 0; i = bits.nextSetBit(i + 1)) onMatch.accept(i);
+        return last.get(q) ? DEAD : x;
+    }
+
+    private Utf8Table utf8() {
+        var t = utf8;
+        if (t == null)
+            utf8 = t = Utf8Table.build(table);
+        return t;
+    }
+
+    public int size() {
+        return patterns.size();
+    }
+
+    public Re pattern(int i) {
+        return patterns.get(i);
+    }
+
+    @Override
+    public String toString() {
+        return table.toString();
+    }
+}
@@ -0,0 +1,186 @@
+package de.sfxr.rederiv;
+
+import java.util.*;
+
+/**
+ * Rejects inputs which contain none of a set of literal factors, one of which occurs in every
+ * match.
+ *
+ * <p>A single factor is searched with {@link String#indexOf(String, int)}, several factors with an
+ * Aho-Corasick automaton. Its transitions are stored like a DFA over the characters occurring in the
+ * factors, all other characters share one column.
+ */
+final class Prefilter {
+
+    static final int MAX_FACTORS = 64;
+
+    // sets of single characters larger than this make for a useless filter
+    private static final int MAX_CHARSET_FACTORS = 16;
+
+    private final String single;
+    private final int[] columns;
+    private final int stride;
+    private final int[] trans;
+    private final boolean[] found;
+
+    private Prefilter(String single, int[] columns, int[] trans, boolean[] found) {
+        this.single = single;
+        this.columns = columns;
+        this.stride = single != null ? 0 : Arrays.stream(columns).max().orElse(0) + 1;
+        this.trans = trans;
+        this.found = found;
+    }
+
+    /** Returns a filter for {@code factors}, or null if they can't rule out any input. */
+    static Prefilter of(Set<String> factors) {
+        if (factors.isEmpty() || factors.contains(""))
+            return null;
+        if (factors.size() == 1)
+            return new Prefilter(factors.iterator().next(), null, null, null);
+
+        // column 0 is for characters not occurring in any factor
+        var maxChar = 0;
+        for (var f : factors)
+            for (int i = 0; i < f.length(); ++i) maxChar = Integer.max(maxChar, f.charAt(i));
+        var columns = new int[maxChar + 1];
+        var ncols = 1;
+        for (var f : factors)
+            for (int i = 0; i < f.length(); ++i)
+                if (columns[f.charAt(i)] == 0) columns[f.charAt(i)] = ncols++;
+
+        // trie of the factors, node 0 is the root
+        var children = new ArrayList<int[]>();
+        var terminal = new ArrayList<Boolean>();
+        children.add(new int[ncols]);
+        terminal.add(false);
+        for (var f : factors) {
+            var node = 0;
+            for (int i = 0; i < f.length(); ++i) {
+                var c = columns[f.charAt(i)];
+                if (children.get(node)[c] == 0) {
+                    children.get(node)[c] = children.size();
+                    children.add(new int[ncols]);
+                    terminal.add(false);
+                }
+                node = children.get(node)[c];
+            }
+            terminal.set(node, true);
+        }
+
+        // breadth first, completing the trie with the failure transitions
+        var n = children.size();
+        var trans = new int[n * ncols];
+        var found = new boolean[n];
+        var fail = new int[n];
+        var queue = new ArrayDeque<Integer>();
+        for (int c = 0; c < ncols; ++c) {
+            var child = children.get(0)[c];
+            trans[c] = child;
+            if (child != 0) queue.add(child);
+        }
+        while (!queue.isEmpty()) {
+            int node = queue.remove();
+            found[node] = terminal.get(node) || found[fail[node]];
+            for (int c = 0; c < ncols; ++c) {
+                var child = children.get(node)[c];
+                if (child != 0) {
+                    fail[child] = trans[fail[node] * ncols + c];
+                    trans[node * ncols + c] = child;
+                    queue.add(child);
+                } else {
+                    trans[node * ncols + c] = trans[fail[node] * ncols + c];
+                }
+            }
+        }
+
+        return new Prefilter(null, columns, trans, found);
+    }
+
+    /** Whether one of the factors occurs in {@code s} at or after {@code from}. */
+    boolean mayMatch(String s, int from) {
+        if (single != null)
+            return s.indexOf(single, from) >= 0;
+
+        var node = 0;
+        for (int i = from, n = s.length(); i < n; ++i) {
+            var ch = s.charAt(i);
+            node = trans[node * stride + (ch < columns.length ? columns[ch] : 0)];
+            if (found[node])
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Returns a set of literals at least one of which occurs in every match of {@code re}, the set
+     * is empty if there are none known.
+     */
+    static Set<String> requiredFactors(Re re) {
+        var fs = factors(re);
+        return fs == null ? Collections.emptySet() : fs;
+    }
+
+    // null means no known factors
+    private static Set<String> factors(Re re) {
+        return re.visitIgnoreCapture(factorsVis);
+    }
+
+    /** Prefers factors with a longer shortest element, then fewer of them. */
+    private static Set<String> better(Set<String> x, Set<String> y) {
+        if (x == null) return y;
+        if (y == null) return x;
+        var mx = x.stream().mapToInt(String::length).min().orElse(0);
+        var my = y.stream().mapToInt(String::length).min().orElse(0);
+        if (mx != my) return mx > my ? x : y;
+        return y.size() < x.size() ? y : x;
+    }
+
+    private static final Re.Visitor<Set<String>> factorsVis =
+            new Re.Visitor<>() {
+                @Override
+                public Set<String> visit(Re.Branch br) {
+                    var fa = factors(br.a);
+                    var fb = factors(br.b);
+                    switch (br.kind) {
+                        case SEQ:
+                        case IS:
+                            return better(fa, fb);
+                        case ALT:
+                            if (fa == null || fb == null) return null;
+                            var u = new HashSet<>(fa);
+                            u.addAll(fb);
+                            return u.size() <= MAX_FACTORS ? u : null;
+                    }
+                    return Re.unreachable();
+                }
+
+                @Override
+                public Set<String> visit(Re.Rep rep) {
+                    return rep.min > 0 ? factors(rep.re) : null;
+                }
+
+                @Override
+                public Set<String> visit(Re.Lit l) {
+                    return l.val.isEmpty() ? null : Set.of(l.val);
+                }
+
+                @Override
+                public Set<String> visit(CharSet cs) {
+                    if (cs.complement || cs.isEmptySet() || cs.size() > MAX_CHARSET_FACTORS) return null;
+                    var fs = new HashSet<String>();
+                    for (var iv : cs.toIntervalSet().asList())
+                        for (int cp = iv.a; cp < iv.b; ++cp) fs.add(Character.toString(cp));
+                    return fs;
+                }
+
+                @Override
+                public Set<String> visit(Re.Capture cap) {
+                    throw new IllegalStateException("BUG");
+                }
+
+                @Override
+                public Set<String> visit(Re.Neg neg) {
+                    return null;
+                }
+            };
+}
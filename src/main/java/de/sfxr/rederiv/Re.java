@@ -1,5 +1,7 @@
 package de.sfxr.rederiv;
 
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
 import de.sfxr.rederiv.support.Checking;
 
 import java.util.Objects;
@@ -12,6 +14,12 @@ public abstract class Re implements ReAlg<Re> {
 
     private final static boolean CHECKING = Checking.isCheckingEnabled(Re.class);
 
+    // all nodes are hash-consed, structurally equal nodes are identical
+    private static final Interner<Re> NODES = Interners.newWeakInterner();
+
+    // the derivative classes, computed on first use
+    private volatile Partition partition;
+
     public enum Kind {
         Lit,
         CharSet,
@@ -52,6 +60,7 @@ public abstract class Re implements ReAlg<Re> {
         public final Re a, b;
         private final int capCount;
         private final boolean matchesEmpty;
+        private final int hash;
 
         private Branch(Kind kind, int caps, Re a, Re b) {
             this.kind = kind;
@@ -65,6 +74,11 @@ public abstract class Re implements ReAlg<Re> {
                     kind != Kind.ALT
                             ? a.matchesEmpty() && b.matchesEmpty()
                             : a.matchesEmpty() || b.matchesEmpty();
+            this.hash = Objects.hash(kind, a, b);
+        }
+
+        private static Branch make(Kind kind, int caps, Re a, Re b) {
+            return intern(new Branch(kind, caps, a, b));
         }
 
         private static Branch commuteCanonical(Kind k, BiFunction<Re, Re, Re> build, int ca, Re a, Branch bc) {
@@ -73,10 +87,10 @@ public abstract class Re implements ReAlg<Re> {
             // can commute a OP (b OP c) => b OP (a OP C) IFF either a or b has no captures
             int cb = -1;
             if (o < 0 || (ca > 0 && (cb = bc.a.countCaptures()) > 0))
-                return new Branch(k, ca + bc.capCount, a, bc);
+                return make(k, ca + bc.capCount, a, bc);
             var rhs = build.apply(a, bc.b);
             if (cb < 0) cb = bc.a.countCaptures();
-            return new Branch(k, cb + rhs.countCaptures(), bc.a, rhs);
+            return make(k, cb + rhs.countCaptures(), bc.a, rhs);
         }
 
         // FIXME: this does not respect capture ordering
@@ -88,14 +102,14 @@ public abstract class Re implements ReAlg<Re> {
                 if (oo == 0)
                     return build.apply(aalt.b, b);
                 if (oo < 0)
-                    return new Branch(k, ca + cb, aalt.a, build.apply(aalt.b, b));
-                return new Branch(k, ca + cb, balt.a, build.apply(balt.b, a));
+                    return make(k, ca + cb, aalt.a, build.apply(aalt.b, b));
+                return make(k, ca + cb, balt.a, build.apply(balt.b, a));
             }
             if (aalt != null)
                 return commuteCanonical(k, build, cb, b, aalt);
             if (balt != null)
                 return commuteCanonical(k, build, ca, a, balt);
-            return new Branch(k, ca + cb, a, b);
+            return make(k, ca + cb, a, b);
         }
 
         public static Re alt(Re a, Re b) {
@@ -104,9 +118,11 @@ public abstract class Re implements ReAlg<Re> {
             var ord = a.compareTo(b);
             if (ord == 0 && ca == 0) return b;
             if (ord == 0 && cb == 0) return a;
-            if (ca == 0 && (a.isVoid() || (a.isEmpty() && b.matchesEmpty()))) return b;
+            if (ca == 0 && a.isVoid()) return b;
+            if (cb == 0 && b.isVoid()) return a;
+            if (ca == 0 && a.isEmpty() && b.matchesEmpty()) return b;
             if (ca == 0 && a.isEmpty()) return b.opt();
-            if (cb == 0 && (b.isVoid() || (b.isEmpty() && a.matchesEmpty()))) return a;
+            if (cb == 0 && b.isEmpty() && a.matchesEmpty()) return a;
             if (cb == 0 && b.isEmpty()) return a.opt();
             if ((ca == 0 || cb == 0) && ord > 0) {
                 var t = a;
@@ -140,7 +156,7 @@ public abstract class Re implements ReAlg<Re> {
                 a = aseq.a;
                 b = seq(aseq.b, b);
             }
-            return new Branch(Kind.SEQ, caps, a, b);
+            return make(Kind.SEQ, caps, a, b);
         }
 
         public static Re isect(Re a, Re b) {
@@ -178,6 +194,21 @@ public abstract class Re implements ReAlg<Re> {
             return unreachable();
         }
 
+        @Override
+        public Re reverse() {
+            var ra = a.reverse();
+            var rb = b.reverse();
+            switch (kind) {
+                case ALT:
+                    return alt(ra, rb);
+                case SEQ:
+                    return seq(rb, ra);
+                case IS:
+                    return isect(ra, rb);
+            }
+            return unreachable();
+        }
+
         @Override
         public String litPrefix() {
             switch (kind) {
@@ -214,7 +245,13 @@ public abstract class Re implements ReAlg<Re> {
 
         @Override
         public int hashCode() {
-            return Objects.hash(kind, a, b);
+            return hash;
+        }
+
+        @Override
+        protected boolean shallowEquals(Re re) {
+            var br = (Branch) re;
+            return kind == br.kind && a == br.a && b == br.b;
         }
 
         @Override
@@ -280,6 +317,7 @@ public abstract class Re implements ReAlg<Re> {
     public static final class Rep extends Re {
         public final int min, max;
         public final Re re;
+        private final int hash;
 
         private Rep(int min, int max, Re re) {
             if (min < 0 || min > max) throw new IllegalArgumentException();
@@ -288,6 +326,11 @@ public abstract class Re implements ReAlg<Re> {
             this.max = max;
             if (min == 0 && max == 0) throw new RuntimeException("BUG: should not happend");
             this.re = Objects.requireNonNull(re);
+            this.hash = Objects.hash(min, max, re);
+        }
+
+        private static Rep make(int min, int max, Re re) {
+            return intern(new Rep(min, max, re));
         }
 
         public static Re from(int min, int max, Re re) {
@@ -308,7 +351,7 @@ public abstract class Re implements ReAlg<Re> {
                     return Re.Deferred.ANYTHING;
             }
 
-            if (!(re instanceof Rep)) return new Rep(min, max, re);
+            if (!(re instanceof Rep)) return make(min, max, re);
             Rep rep = (Rep) re;
 
             var a = rep.min;
@@ -366,26 +409,26 @@ public abstract class Re implements ReAlg<Re> {
 
             // x{0, b}{n, m} = x{0, b * m}
             // x{1, b}{n, m} = x{n, m} x{0, b - 1}{n, m} = x{n, b * m}
-            if (a == 0 || a == 1) return new Rep(a * n, ReAlg.cardMul(b, m), rep.re);
+            if (a == 0 || a == 1) return make(a * n, ReAlg.cardMul(b, m), rep.re);
 
             // x{a, INF}{n, m} = x{a * n, INF}
             if (b == INF_CARD)
-                return new Rep(a * n, INF_CARD, rep.re); // FIXME: handle overflow in next line
+                return make(a * n, INF_CARD, rep.re); // FIXME: handle overflow in next line
 
             // x{a}{n, m} = x{a * n, a * m}
             if (a == b) // FIXME: overflow...
-            return new Rep(a * n, ReAlg.cardMul(a, m), rep.re);
+            return make(a * n, ReAlg.cardMul(a, m), rep.re);
 
             // if b + 1 >= 2 a
             // x{a, b}{0, m} = 1 + x{a, m * b}
             if (n == 0 && b >= 2 * a - 1) {
-                if (rep.re.matchesEmpty()) return new Rep(a, ReAlg.cardMul(m, b), rep.re);
+                if (rep.re.matchesEmpty()) return make(a, ReAlg.cardMul(m, b), rep.re);
                 else if (m != 1) // if m == 1 this would lead to endless recursion
                 return Lit.EMPTY.alt(rep.re.range(a, ReAlg.cardMul(m, b)));
             }
 
             // general case
-            return new Rep(min, max, re);
+            return make(min, max, re);
         }
 
         @Override
@@ -404,9 +447,20 @@ public abstract class Re implements ReAlg<Re> {
             return min == 0 || re.matchesEmpty();
         }
 
+        @Override
+        public Re reverse() {
+            return re.reverse().range(min, max);
+        }
+
         @Override
         public String litPrefix() {
-            return re.litPrefix().repeat(min);
+            if (min == 0)
+                return "";
+            var lit = re.fromLit();
+            var cp = re.fromSingletonCharSetNoCapture();
+            if (lit == null && cp >= 0) lit = Character.toString(cp);
+            // only a literal can be repeated, otherwise the prefix of a single iteration is all we know
+            return lit != null ? lit.repeat(min) : re.litPrefix();
         }
 
         @Override
@@ -437,7 +491,13 @@ public abstract class Re implements ReAlg<Re> {
 
         @Override
         public int hashCode() {
-            return Objects.hash(min, max, re);
+            return hash;
+        }
+
+        @Override
+        protected boolean shallowEquals(Re re) {
+            var rep = (Rep) re;
+            return min == rep.min && max == rep.max && this.re == rep.re;
         }
 
         @Override
@@ -460,7 +520,7 @@ public abstract class Re implements ReAlg<Re> {
     }
 
     public static final class Lit extends Re {
-        public static final Lit EMPTY = new Lit("");
+        public static final Lit EMPTY = make("");
 
         public final String val;
 
@@ -468,15 +528,19 @@ public abstract class Re implements ReAlg<Re> {
             this.val = Objects.requireNonNull(val);
         }
 
+        private static Lit make(String val) {
+            return intern(new Lit(val));
+        }
+
         public static Re from(String val) {
             if (val.isEmpty()) return EMPTY;
             int cp = val.codePointAt(0);
             if (val.length() == Character.charCount(cp)) return CharSet.setFromChar(cp);
-            return new Lit(val);
+            return make(val);
         }
 
         public static Re fromCodePoints(int x, int y) {
-            return new Lit(new StringBuilder().appendCodePoint(x).appendCodePoint(y).toString());
+            return make(new StringBuilder().appendCodePoint(x).appendCodePoint(y).toString());
         }
 
         @Override
@@ -484,6 +548,11 @@ public abstract class Re implements ReAlg<Re> {
             return Pattern.quote(val);
         }
 
+        @Override
+        public Re reverse() {
+            return from(new StringBuilder(val).reverse().toString());
+        }
+
         @Override
         public String litPrefix() {
             return val;
@@ -519,6 +588,11 @@ public abstract class Re implements ReAlg<Re> {
             return val.hashCode();
         }
 
+        @Override
+        protected boolean shallowEquals(Re re) {
+            return val.equals(((Lit) re).val);
+        }
+
         @Override
         protected int compareToRe(Re re) {
             return -re.compareToRe(this);
@@ -532,18 +606,23 @@ public abstract class Re implements ReAlg<Re> {
 
     public static final class Neg extends Re {
         public final Re re;
+        private final int hash;
 
         private Neg(Re re) {
             this.re = Objects.requireNonNull(re);
+            this.hash = Objects.hash(kind(), re.hashCode());
+        }
+
+        private static Neg make(Re re) {
+            return intern(new Neg(re));
         }
 
         public static Re from(Re re) {
             var neg = re.fromNegNoCapture();
-            if (neg != null) return neg;
-            var cs = re.fromCharSetNoCapture();
-            if (cs != null) return cs.complement();
+            if (neg != null) return neg.re;
+            // the complement of a char set matches strings of any length other than one too
             if (re.isVoid()) return re.asAnything();
-            return new Neg(re);
+            return make(re);
         }
 
         @Override
@@ -553,6 +632,11 @@ public abstract class Re implements ReAlg<Re> {
             return "!" + re.toPattern(0, ext);
         }
 
+        @Override
+        public Re reverse() {
+            return from(re.reverse());
+        }
+
         @Override
         public String litPrefix() {
             return "";
@@ -585,7 +669,12 @@ public abstract class Re implements ReAlg<Re> {
 
         @Override
         public int hashCode() {
-            return Objects.hash(kind(), re.hashCode());
+            return hash;
+        }
+
+        @Override
+        protected boolean shallowEquals(Re re) {
+            return this.re == ((Neg) re).re;
         }
 
         @Override
@@ -611,10 +700,14 @@ public abstract class Re implements ReAlg<Re> {
             this.re = Objects.requireNonNull(re);
         }
 
+        private static Capture make(Re re) {
+            return intern(new Capture(re));
+        }
+
         public static Re from(Re re) {
             var cap = re.fromCapture();
             if (cap != null) return cap;
-            return new Capture(re);
+            return make(re);
         }
 
         @Override
@@ -622,6 +715,11 @@ public abstract class Re implements ReAlg<Re> {
             return "(" + re.toPattern(0, ext) + ")";
         }
 
+        @Override
+        public Re reverse() {
+            return from(re.reverse());
+        }
+
         @Override
         public String litPrefix() {
             return re.litPrefix();
@@ -672,6 +770,11 @@ public abstract class Re implements ReAlg<Re> {
             return re.hashCode();
         }
 
+        @Override
+        protected boolean shallowEquals(Re re) {
+            return this.re == ((Capture) re).re;
+        }
+
         @Override
         protected int compareToRe(Re re) {
             return -re.compareToRe(this);
@@ -771,8 +874,13 @@ public abstract class Re implements ReAlg<Re> {
         return null;
     }
 
+    @Override
     public abstract String litPrefix();
 
+    /** The expression matching exactly the reversed strings, captures are kept. */
+    @Override
+    public abstract Re reverse();
+
     public abstract boolean matchesEmpty();
 
     protected abstract Kind kind();
@@ -819,6 +927,7 @@ public abstract class Re implements ReAlg<Re> {
 
     @Override
     public int compareTo(Re rhs) {
+        if (rhs == this) return 0;
         if (rhs == null) return 1;
         return this.unwrapCapture().compareToRe(rhs.unwrapCapture());
     }
@@ -840,11 +949,26 @@ public abstract class Re implements ReAlg<Re> {
         return 0;
     }
 
+    @SuppressWarnings("unchecked")
+    static <T extends Re> T intern(T re) {
+        return (T) NODES.intern(re);
+    }
+
+    /**
+     * Nodes are only created through {@link #intern}, so their children are canonical and comparing
+     * them by reference decides structural equality. Hash codes are computed once per node.
+     */
     @Override
     public final boolean equals(Object obj) {
-        return obj instanceof Re && compareTo((Re) obj) == 0;
+        if (this == obj) return true;
+        if (obj == null || obj.getClass() != getClass()) return false;
+        var re = (Re) obj;
+        return hashCode() == re.hashCode() && shallowEquals(re);
     }
 
+    /** Compares the fields of a node of the same class, children by reference. */
+    protected abstract boolean shallowEquals(Re re);
+
     @Override
     public abstract int hashCode();
 
@@ -873,9 +997,30 @@ public abstract class Re implements ReAlg<Re> {
         return ReDeriv.deriv(this, cp);
     }
 
+    @Override
+    public Re deriv(CharSet cls) {
+        return ReDeriv.deriv(this, cls);
+    }
+
     @Override
     public Set<CharSet> derivClasses() {
-        return ReDeriv.derivClasses(this);
+        return derivPartition().classes();
+    }
+
+    Partition derivPartition() {
+        var p = partition;
+        if (p == null) partition = p = ReDeriv.derivPartition(this);
+        return p;
+    }
+
+    @Override
+    public Set<CharSet> charSets() {
+        return ReDeriv.charSets(this);
+    }
+
+    @Override
+    public Set<String> requiredFactors() {
+        return Prefilter.requiredFactors(this);
     }
 
     @Override
@@ -884,7 +1029,7 @@ public abstract class Re implements ReAlg<Re> {
     }
 
     private final static class Deferred {
-        static final Re ANYTHING = new Rep(0, INF_CARD, CharSet.ANY);
+        static final Re ANYTHING = intern(new Rep(0, INF_CARD, CharSet.ANY));
     }
 
     @Override
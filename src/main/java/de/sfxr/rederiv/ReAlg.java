@@ -56,6 +56,17 @@ public interface ReAlg<R extends ReAlg<R>> extends Comparable<R> {
 
     R anyChar();
 
+    R reverse();
+
+    /** A string every match starts with. */
+    String litPrefix();
+
+    /**
+     * Literals at least one of which occurs in every match, empty if there are none known. See
+     * {@link Prefilter#requiredFactors(Re)}.
+     */
+    Set<String> requiredFactors();
+
     default R fromChar(char ch) {
         return fromChar((int) ch);
     }
@@ -71,8 +82,17 @@ public interface ReAlg<R extends ReAlg<R>> extends Comparable<R> {
 
     R deriv(int cp);
 
+    /** The derivative by the code points of {@code cls}, which has to lie within one of the {@link #derivClasses}. */
+    R deriv(CharSet cls);
+
     Set<CharSet> derivClasses();
 
+    /**
+     * The character sets tested by this expression and all of its derivatives. Code points which
+     * are in the same sets yield the same derivatives.
+     */
+    Set<CharSet> charSets();
+
     R asVoid();
 
     boolean isVoid();
@@ -1,9 +1,10 @@
 package de.sfxr.rederiv;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import de.sfxr.rederiv.Re.Neg;
 import de.sfxr.rederiv.support.Checking;
 
-import java.util.Collections;
 import java.util.HashSet;
 import java.util.Set;
 
@@ -11,144 +12,231 @@ public class ReDeriv {
 
     private final static boolean CHECKING = Checking.isCheckingEnabled(ReDeriv.class);
 
+    static final int MEMO_SIZE = 1 << 16;
+
+    // derivatives of inner nodes by class, shared by all compilations
+    private static final Cache<DerivKey, Re> memo = CacheBuilder.newBuilder().maximumSize(MEMO_SIZE).build();
+
+    /** Nodes and classes are hash-consed, so they are compared by reference. */
+    private static final class DerivKey {
+        final Re re;
+        final CharSet cls;
+
+        DerivKey(Re re, CharSet cls) {
+            this.re = re;
+            this.cls = cls;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof DerivKey && ((DerivKey) o).re == re && ((DerivKey) o).cls == cls;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * re.hashCode() + cls.hashCode();
+        }
+    }
+
     public static Re deriv(Re re, int ch) {
         if (CHECKING && !Character.isValidCodePoint(ch))
             throw new IllegalArgumentException(String.format("0x%04x", ch));
-        var ret = deriv_(re, ch);
+        var ret = derivNode(re, ch, null);
         if (CHECKING)
             System.err.println("D_" + CharSet.charString(ch) + "<<< " + re + " >>> = " + ret);
         return ret;
     }
 
-    private static Re deriv_(Re re, int ch) {
-        return re.visitIgnoreCapture(
-                new Re.Visitor<Re>() {
-                    @Override
-                    public Re visit(Re.Branch br) {
-                        switch (br.kind) {
-                            case SEQ:
-                                // d_a (r s) = (d_a r) s + nu(r) d_a s
-                                var d = deriv_(br.a, ch).seq(br.b);
-                                if (br.a.matchesEmpty()) d = d.alt(deriv_(br.b, ch));
-                                return d;
-                            case ALT:
-                                // d_a (r + s) = d_a r + d_a s
-                                return deriv_(br.a, ch).alt(deriv_(br.b, ch));
-                            case IS:
-                                return deriv_(br.a, ch).isect(deriv_(br.b, ch));
-                        }
-                        return Re.unreachable();
-                    }
-
-                    @Override
-                    public Re visit(Re.Rep rep) {
-                        // first:
-                        // n > 1: d_a (r{n}) = d_a (r r{n-1}) = d_a r r{n - 1} + nu(r) d_a r{n - 1}
-                        // if nu(r) = VOID: d_a r r{n - 1}
-                        // if nu(r) = EMPTY: d_a r r{n - 1} + d_a r r{n - 2} .. d_a r
-                        //                 = d_a r (r{n-1} + r{n-2} + .. + EMPTY)
-                        //                 = d_a r r{0, n-1}
-                        //
-                        // if nu(r) = VOID:
-                        // d_a r{0, m} = d_a (EMPTY + r + r{2} + .. + r{m}) = d_a r + d_a r r ... +
-                        // d_a r r{m - 1}
-                        //             = d_a r r{0,m - 1}
-                        // if nu(r) = EMPTY
-                        // d_a r{0, m} = d_a (EMPTY + r + r{2} + .. + r{m})
-                        //             = d_a r + (d_a r r + d_a r) + (d_a r r{2} + d_a r r + d_a r)
-                        // + ... +  (d_a r r{m - 1} + d_a r r{m - 2} + ... d_a r)
-                        //             = d_a r + d_a r r{0,1} + d_a r r{0, 2} + ... + d_a r r{0, m -
-                        // 1}
-                        //             = d_a r r{0, m - 1}
-                        // => d_a r{0, m} = d_a r r{0, m - 1}
-                        //
-                        // d_a (r{n, m}) = d_a (r{n} r{0, m - n})
-                        //               = d_a (r{n}) r{0, m - n} + nu(r) d_a r{0, m - n}
-                        //
-                        // if nu(r) = VOID:
-                        // d_a (r{n, m}) = d_a (r{n} r{0, m - n})
-                        //               = d_a (r{n}) r{0, m - n}
-                        //               = d_a r r{n - 1} r{0, m - n}
-                        //               = d_a r r{n - 1, m - 1}
-                        // if nu(r) = EMPTY:
-                        // d_a (r{n, m}) = d_a (r{n} r{0, m - n})
-                        //               = d_a (r{n}) r{0, m - n} + d_a r{0, m - n}
-                        //               = d_a r r{0, n - 1} r{0, m - n} + d_a r r{0, m - n - 1}
-                        //               = d_a r (r{0, m - 1} + r{0, m - n - 1})
-                        //               = d_a r r{0, m - 1}
-
-                        var n = rep.re.matchesEmpty() ? 0 : Integer.max(0, rep.min - 1);
-                        var m = ReAlg.cardSub(rep.max, 1);
-                        return deriv_(rep.re, ch).seq(rep.re.range(n, m));
-                    }
-
-                    @Override
-                    public Re visit(Re.Lit l) {
-                        if (!l.val.isEmpty() && l.val.codePointAt(0) == ch)
-                            return Re.Lit.from(l.val.substring(Character.charCount(ch)));
-                        return CharSet.NONE;
-                    }
-
-                    @Override
-                    public Re visit(CharSet cs) {
-                        return cs.containsChar(ch) ? Re.Lit.EMPTY : CharSet.NONE;
-                    }
+    /**
+     * The derivative by any code point of {@code cls}, which has to be contained in one of the
+     * {@link #derivClasses} of {@code re}. Derivatives of inner nodes are memoized by class.
+     */
+    public static Re deriv(Re re, CharSet cls) {
+        switch (re.kind()) {
+            case Lit:
+            case CharSet:
+                return derivNode(re, cls.pickOne(), cls);
+        }
+        var key = new DerivKey(re, cls);
+        var d = memo.getIfPresent(key);
+        if (d == null) {
+            d = derivNode(re, cls.pickOne(), cls);
+            memo.put(key, d);
+        }
+        return d;
+    }
 
-                    @Override
-                    public Re visit(Re.Capture cap) {
-                        throw new IllegalStateException("BUG");
-                    }
+    // derivatives of sub terms are memoized too when taken by class
+    private static Re derivSub(Re re, int ch, CharSet cls) {
+        return cls != null ? deriv(re, cls) : derivNode(re, ch, null);
+    }
 
-                    @Override
-                    public Re visit(Neg neg) {
-                        return deriv_(re, ch).neg();
-                    }
-                });
+    /**
+     * Derives a single node, dispatching on its kind. Nothing is allocated apart from the resulting
+     * terms, and the spine of a sequence is only descended while its heads match the empty string.
+     */
+    private static Re derivNode(Re re, int ch, CharSet cls) {
+        if (re.isCapture())
+            throw new IllegalStateException("BUG");
+        switch (re.kind()) {
+            case Seq: {
+                // d_a (r s) = (d_a r) s + nu(r) d_a s
+                var br = (Re.Branch) re;
+                var d = derivSub(br.a, ch, cls).seq(br.b);
+                if (br.a.matchesEmpty()) d = d.alt(derivSub(br.b, ch, cls));
+                return d;
+            }
+            case Alt: {
+                // d_a (r + s) = d_a r + d_a s
+                var br = (Re.Branch) re;
+                return derivSub(br.a, ch, cls).alt(derivSub(br.b, ch, cls));
+            }
+            case Is: {
+                var br = (Re.Branch) re;
+                return derivSub(br.a, ch, cls).isect(derivSub(br.b, ch, cls));
+            }
+            case Rep: {
+                // first:
+                // n > 1: d_a (r{n}) = d_a (r r{n-1}) = d_a r r{n - 1} + nu(r) d_a r{n - 1}
+                // if nu(r) = VOID: d_a r r{n - 1}
+                // if nu(r) = EMPTY: d_a r r{n - 1} + d_a r r{n - 2} .. d_a r
+                //                 = d_a r (r{n-1} + r{n-2} + .. + EMPTY)
+                //                 = d_a r r{0, n-1}
+                //
+                // if nu(r) = VOID:
+                // d_a r{0, m} = d_a (EMPTY + r + r{2} + .. + r{m}) = d_a r + d_a r r ... +
+                // d_a r r{m - 1}
+                //             = d_a r r{0,m - 1}
+                // if nu(r) = EMPTY
+                // d_a r{0, m} = d_a (EMPTY + r + r{2} + .. + r{m})
+                //             = d_a r + (d_a r r + d_a r) + (d_a r r{2} + d_a r r + d_a r)
+                // + ... +  (d_a r r{m - 1} + d_a r r{m - 2} + ... d_a r)
+                //             = d_a r + d_a r r{0,1} + d_a r r{0, 2} + ... + d_a r r{0, m -
+                // 1}
+                //             = d_a r r{0, m - 1}
+                // => d_a r{0, m} = d_a r r{0, m - 1}
+                //
+                // d_a (r{n, m}) = d_a (r{n} r{0, m - n})
+                //               = d_a (r{n}) r{0, m - n} + nu(r) d_a r{0, m - n}
+                //
+                // if nu(r) = VOID:
+                // d_a (r{n, m}) = d_a (r{n} r{0, m - n})
+                //               = d_a (r{n}) r{0, m - n}
+                //               = d_a r r{n - 1} r{0, m - n}
+                //               = d_a r r{n - 1, m - 1}
+                // if nu(r) = EMPTY:
+                // d_a (r{n, m}) = d_a (r{n} r{0, m - n})
+                //               = d_a (r{n}) r{0, m - n} + d_a r{0, m - n}
+                //               = d_a r r{0, n - 1} r{0, m - n} + d_a r r{0, m - n - 1}
+                //               = d_a r (r{0, m - 1} + r{0, m - n - 1})
+                //               = d_a r r{0, m - 1}
+                var rep = (Re.Rep) re;
+                var n = rep.re.matchesEmpty() ? 0 : Integer.max(0, rep.min - 1);
+                var m = ReAlg.cardSub(rep.max, 1);
+                return derivSub(rep.re, ch, cls).seq(rep.re.range(n, m));
+            }
+            case Lit: {
+                var l = (Re.Lit) re;
+                if (!l.val.isEmpty() && l.val.codePointAt(0) == ch)
+                    return Re.Lit.from(l.val.substring(Character.charCount(ch)));
+                return CharSet.NONE;
+            }
+            case CharSet:
+                return ((CharSet) re).containsChar(ch) ? Re.Lit.EMPTY : CharSet.NONE;
+            case Neg:
+                return derivSub(((Neg) re).re, ch, cls).neg();
+        }
+        return Re.unreachable();
     }
 
+    /** The non-empty intersections of the classes of two partitions of the code points. */
     public static Set<CharSet> intersections(Set<CharSet> r, Set<CharSet> s) {
-        if (s.size() < r.size()) {
-            var t = s;
-            s = r;
-            r = t;
-        }
-        var u = new HashSet<CharSet>();
-        for (var x : r) {
-            if (x.isEmptySet()) u.add(x);
-            else for (var y : s) u.add(x.intersect(y));
-        }
-        return u;
+        return Partition.of(r).refine(Partition.of(s)).classes();
     }
 
-    private static final Re.Visitor<Set<CharSet>> derivClassesVis =
+    private static final Re.Visitor<Partition> derivPartitionVis =
             new Re.Visitor<>() {
                 @Override
-                public Set<CharSet> visit(Re.Branch br) {
-                    var cr = derivClasses(br.a);
+                public Partition visit(Re.Branch br) {
+                    var pa = br.a.derivPartition();
                     switch (br.kind) {
                         case SEQ:
-                            if (!br.a.matchesEmpty()) return cr;
+                            if (!br.a.matchesEmpty()) return pa;
                         case ALT:
                         case IS:
-                            return intersections(cr, derivClasses(br.b));
+                            return pa.refine(br.b.derivPartition());
                     }
                     return Re.unreachable();
                 }
 
+                @Override
+                public Partition visit(Re.Rep rep) {
+                    return rep.re.derivPartition();
+                }
+
+                @Override
+                public Partition visit(Re.Lit l) {
+                    if (l.isEmpty()) return Partition.ALL;
+                    return Partition.of(CharSet.setFromChar(l.val.codePointAt(0)));
+                }
+
+                @Override
+                public Partition visit(CharSet cs) {
+                    return Partition.of(cs);
+                }
+
+                @Override
+                public Partition visit(Re.Capture cap) {
+                    throw new IllegalStateException("BUG");
+                }
+
+                @Override
+                public Partition visit(Re.Neg neg) {
+                    return neg.re.derivPartition();
+                }
+            };
+
+    /**
+     * The partition of the code points into classes with equal derivatives of {@code re}. Sub terms
+     * cache their partitions, so this only refines the partitions of the children.
+     */
+    static Partition derivPartition(Re re) {
+        return re.visitIgnoreCapture(derivPartitionVis);
+    }
+
+    /** Like {@link #derivPartition(Re)}, falling back to the classes of other algebras. */
+    static Partition partitionOf(ReAlg<?> re) {
+        return re instanceof Re ? ((Re) re).derivPartition() : Partition.of(re.derivClasses());
+    }
+
+    public static Set<CharSet> derivClasses(Re re) {
+        return re.derivPartition().classes();
+    }
+
+    private static final Re.Visitor<Set<CharSet>> charSetsVis =
+            new Re.Visitor<>() {
+                @Override
+                public Set<CharSet> visit(Re.Branch br) {
+                    var cs = new HashSet<>(charSets(br.a));
+                    cs.addAll(charSets(br.b));
+                    return cs;
+                }
+
                 @Override
                 public Set<CharSet> visit(Re.Rep rep) {
-                    return derivClasses(rep.re);
+                    return charSets(rep.re);
                 }
 
                 @Override
                 public Set<CharSet> visit(Re.Lit l) {
-                    if (l.isEmpty()) return Collections.singleton(CharSet.ANY);
-                    return visit(CharSet.setFromChar(l.val.codePointAt(0)));
+                    var cs = new HashSet<CharSet>();
+                    l.val.codePoints().forEach(cp -> cs.add(CharSet.setFromChar(cp)));
+                    return cs;
                 }
 
                 @Override
                 public Set<CharSet> visit(CharSet cs) {
-                    return Set.of(cs, cs.complement());
+                    return Set.of(cs);
                 }
 
                 @Override
@@ -158,11 +246,11 @@ public class ReDeriv {
 
                 @Override
                 public Set<CharSet> visit(Re.Neg neg) {
-                    return derivClasses(neg.re);
+                    return charSets(neg.re);
                 }
             };
 
-    public static Set<CharSet> derivClasses(Re re) {
-        return re.visitIgnoreCapture(derivClassesVis);
+    public static Set<CharSet> charSets(Re re) {
+        return re.visitIgnoreCapture(charSetsVis);
     }
 }
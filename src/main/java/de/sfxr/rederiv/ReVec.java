@@ -50,6 +50,36 @@ public class ReVec<Re extends ReAlg<Re>> extends ForwardingList<Re> implements R
         return mapped(Re::neg);
     }
 
+    @Override
+    public ReVec<Re> reverse() {
+        return mapped(ReAlg::reverse);
+    }
+
+    @Override
+    public String litPrefix() {
+        if (res.isEmpty()) return "";
+        var prefix = res.get(0).litPrefix();
+        for (var re : res) {
+            var p = re.litPrefix();
+            var n = Integer.min(prefix.length(), p.length());
+            int i;
+            for (i = 0; i < n && prefix.charAt(i) == p.charAt(i); ++i) {}
+            prefix = prefix.substring(0, i);
+        }
+        return prefix;
+    }
+
+    @Override
+    public Set<String> requiredFactors() {
+        var fs = new HashSet<String>();
+        for (var re : res) {
+            var f = re.requiredFactors();
+            if (f.isEmpty()) return Collections.emptySet();
+            fs.addAll(f);
+        }
+        return fs.size() <= Prefilter.MAX_FACTORS ? fs : Collections.emptySet();
+    }
+
     @Override
     public ReVec<Re> fromLit(String lit) {
         return replicate(re -> re.fromLit(lit));
@@ -121,6 +151,11 @@ public class ReVec<Re extends ReAlg<Re>> extends ForwardingList<Re> implements R
         return mapped(re -> re.deriv(cp));
     }
 
+    @Override
+    public ReVec<Re> deriv(CharSet cls) {
+        return mapped(re -> re.deriv(cls));
+    }
+
     @Override
     protected List<Re> delegate() {
         return res;
@@ -129,11 +164,15 @@ public class ReVec<Re extends ReAlg<Re>> extends ForwardingList<Re> implements R
     @Override
     public Set<CharSet> derivClasses() {
         if (isEmpty()) return Collections.emptySet();
-        Set<CharSet> cs = null;
-        for (var re : res) {
-            var ds = re.derivClasses();
-            cs = cs == null ? ds : ReDeriv.intersections(cs, ds);
-        }
+        var ps = new ArrayList<Partition>(res.size());
+        for (var re : res) ps.add(ReDeriv.partitionOf(re));
+        return Partition.refine(ps).classes();
+    }
+
+    @Override
+    public Set<CharSet> charSets() {
+        var cs = new HashSet<CharSet>();
+        for (var re : res) cs.addAll(re.charSets());
         return cs;
     }
 
@@ -0,0 +1,164 @@
+package de.sfxr.rederiv;
+
+import static de.sfxr.rederiv.DFATable.DEAD;
+import static de.sfxr.rederiv.DFATable.LATIN1;
+import static de.sfxr.rederiv.DFATable.isAcceptingState;
+import static de.sfxr.rederiv.DFATable.isUniversalState;
+import static de.sfxr.rederiv.DFATable.stateRow;
+
+import java.nio.ByteBuffer;
+import java.util.Objects;
+import java.util.function.Supplier;
+
+/**
+ * Matches input arriving in chunks, keeping nothing but the current state between them.
+ *
+ * <p>A stream consists either of chars or of UTF-8 encoded bytes, mixing both is an error. A
+ * surrogate pair or an UTF-8 sequence may be split across chunks. After every chunk the matcher
+ * reports whether the outcome is decided already, once it is the remaining input is ignored.
+ * Instances are obtained from {@link DFA#streamMatcher(MatchMode)} and are not thread safe.
+ */
+public final class StreamMatcher {
+
+    public enum Status {
+        /** The input matches, whatever follows. */
+        MATCHED,
+        /** The input can't match anymore. */
+        DEAD,
+        /** The outcome depends on the input still to come. */
+        UNDECIDED
+    }
+
+    private static final int NONE = 0, CHARS = 1, BYTES = 2;
+
+    // chars copied out of a CharSequence at once
+    private static final int SCRATCH = 1 << 10;
+
+    private final MatchMode mode;
+    // the flags which decide the outcome once they are all set
+    private final int stop;
+    private final DFATable table;
+    private final Supplier<Utf8Table> utf8;
+    private Utf8Table bytes;
+
+    private int x;
+    private int input = NONE;
+    // high surrogate at the end of the last char chunk
+    private char pending;
+    private char[] scratch;
+
+    StreamMatcher(MatchMode mode, DFATable table, Supplier<Utf8Table> utf8) {
+        this.mode = mode;
+        this.stop = mode.stopFlags();
+        this.table = table;
+        this.utf8 = utf8;
+        reset();
+    }
+
+    /** Starts over with an empty stream, which may consist of either chars or bytes again. */
+    public void reset() {
+        input = NONE;
+        pending = 0;
+        x = table.initial;
+    }
+
+    public Status status() {
+        if (x == DEAD)
+            return Status.DEAD;
+        if (mode == MatchMode.FULL ? isUniversalState(x) : isAcceptingState(x))
+            return Status.MATCHED;
+        return Status.UNDECIDED;
+    }
+
+    private boolean decided() {
+        return x == DEAD || (x & stop) == stop;
+    }
+
+    private void expect(int kind) {
+        if (input == NONE) {
+            input = kind;
+            if (kind == BYTES) {
+                if (bytes == null) bytes = utf8.get();
+                x = bytes.initial;
+            }
+        } else if (input != kind) {
+            throw new IllegalStateException("can't mix chars and bytes in one stream");
+        }
+    }
+
+    public Status feed(char[] cs, int off, int len) {
+        Objects.checkFromIndexSize(off, len, cs.length);
+        expect(CHARS);
+        scan(cs, off, off + len);
+        return status();
+    }
+
+    /** Like {@link #feed(char[], int, int)}, copying the chars through a small reused buffer. */
+    public Status feed(CharSequence cs) {
+        expect(CHARS);
+        var n = cs.length();
+        if (n > 0 && scratch == null) scratch = new char[SCRATCH];
+        for (int i = 0; i < n && !decided(); i += SCRATCH) {
+            var k = Integer.min(SCRATCH, n - i);
+            if (cs instanceof String) ((String) cs).getChars(i, i + k, scratch, 0);
+            else for (int j = 0; j < k; ++j) scratch[j] = cs.charAt(i + j);
+            scan(scratch, 0, k);
+        }
+        return status();
+    }
+
+    private void scan(char[] cs, int i, int end) {
+        var trans = table.trans;
+        var alphabet = table.alphabet;
+
+        if (pending != 0 && i < end && !decided()) {
+            int cp = pending;
+            pending = 0;
+            if (Character.isLowSurrogate(cs[i])) cp = Character.toCodePoint((char) cp, cs[i++]);
+            x = trans[stateRow(x) + LATIN1 + alphabet.classOf(cp)];
+        }
+
+        while (i < end && !decided()) {
+            var ch = cs[i++];
+            if (ch < LATIN1) {
+                x = trans[stateRow(x) + ch];
+            } else {
+                int cp = ch;
+                if (Character.isHighSurrogate(ch)) {
+                    if (i == end) {
+                        pending = ch;
+                        break;
+                    }
+                    if (Character.isLowSurrogate(cs[i])) cp = Character.toCodePoint(ch, cs[i++]);
+                }
+                x = trans[stateRow(x) + LATIN1 + alphabet.classOf(cp)];
+            }
+        }
+    }
+
+    /** Feeds the bytes between position and limit, the buffer is left untouched. */
+    public Status feed(ByteBuffer buf) {
+        expect(BYTES);
+        var trans = bytes.trans;
+        for (int i = buf.position(), end = buf.limit(); i < end && !decided(); )
+            x = trans[stateRow(x) + (buf.get(i++) & 0xff)];
+        return status();
+    }
+
+    public Status feed(byte[] b, int off, int len) {
+        Objects.checkFromIndexSize(off, len, b.length);
+        expect(BYTES);
+        var trans = bytes.trans;
+        for (int i = off, end = off + len; i < end && !decided(); )
+            x = trans[stateRow(x) + (b[i++] & 0xff)];
+        return status();
+    }
+
+    /** Ends the stream and returns whether the input matched, {@link #reset} starts a new one. */
+    public boolean finish() {
+        if (pending != 0 && !decided())
+            x = table.trans[stateRow(x) + LATIN1 + table.alphabet.classOf(pending)];
+        pending = 0;
+        return mode == MatchMode.FULL ? isAcceptingState(x) : status() == Status.MATCHED;
+    }
+}
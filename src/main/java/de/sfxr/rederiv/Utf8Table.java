@@ -0,0 +1,285 @@
+package de.sfxr.rederiv;
+
+import static de.sfxr.rederiv.DFATable.DEAD;
+import static de.sfxr.rederiv.DFATable.UNIVERSAL;
+import static de.sfxr.rederiv.DFATable.isAcceptingState;
+import static de.sfxr.rederiv.DFATable.isUniversalState;
+import static de.sfxr.rederiv.DFATable.newState;
+import static de.sfxr.rederiv.DFATable.stateRow;
+
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.util.*;
+
+/**
+ * Byte level transition tables of a {@link DFATable}, matching UTF-8 input without decoding it.
+ *
+ * <p>Every row has one entry per byte value and uses the state encoding of {@link DFATable}, of the
+ * flags only the universal ones are kept. Rows {@code 1..n} correspond to the states of the code
+ * point automaton, the following rows are intermediate states inside a multi byte sequence.
+ * Overlong encodings, surrogates and code points beyond U+10FFFF lead to {@link DFATable#DEAD}, just
+ * like truncated or unexpected continuation bytes. Input is only validated as far as it is scanned,
+ * so bytes following an accepted prefix are never looked at.
+ */
+final class Utf8Table {
+
+    static final int BYTES = 256;
+
+    // rows matched at once by the column matcher
+    static final int LANES = 4;
+
+    final int[] trans;
+    final int initial;
+    // rows below this correspond to the states of the code point automaton
+    final int states;
+
+    private Utf8Table(int[] trans, int initial, int states) {
+        this.trans = trans;
+        this.initial = initial;
+        this.states = states;
+    }
+
+    static Utf8Table build(DFATable dfa) {
+        var decoder = new Decoder(dfa.alphabet);
+        var root = decoder.root();
+        var n = dfa.accepting.length;
+
+        var rows = new ArrayList<int[]>();
+        var rowIds = new HashMap<IntBuffer, Integer>();
+        for (int q = 0; q < n; ++q) rows.add(new int[BYTES]);
+        rowIds.put(IntBuffer.wrap(rows.get(DEAD)), DEAD);
+
+        var lowering = new Lowering(dfa, decoder, rows, rowIds);
+        for (int q = 1; q < n; ++q) rows.set(q, lowering.row(q, root));
+
+        var trans = new int[rows.size() * BYTES];
+        for (int i = 0; i < rows.size(); ++i)
+            System.arraycopy(rows.get(i), 0, trans, i * BYTES, BYTES);
+        var initial = dfa.initial == DEAD ? DEAD : newState(BYTES, dfa.accepting[1]);
+        if (isUniversalState(dfa.initial)) initial |= UNIVERSAL;
+        return new Utf8Table(trans, initial, n);
+    }
+
+    boolean lookingAt(byte[] b, int off, int len) {
+        var x = initial;
+
+        for (int i = off, end = off + len; !isAcceptingState(x); ) {
+            if (i >= end)
+                return false;
+            x = trans[stateRow(x) + (b[i++] & 0xff)];
+            if (x == DEAD)
+                return false;
+        }
+
+        return true;
+    }
+
+    boolean lookingAt(ByteBuffer buf) {
+        var x = initial;
+
+        for (int i = buf.position(), end = buf.limit(); !isAcceptingState(x); ) {
+            if (i >= end)
+                return false;
+            x = trans[stateRow(x) + (buf.get(i++) & 0xff)];
+            if (x == DEAD)
+                return false;
+        }
+
+        return true;
+    }
+
+    /** Runs from the initial state over {@code b[from, to)} until all of the {@code stop} flags are set. */
+    int run(int stop, byte[] b, int from, int to) {
+        var trans = this.trans;
+        var x = initial;
+        for (int i = from; i < to && x != DEAD && (x & stop) != stop; )
+            x = trans[stateRow(x) + (b[i++] & 0xff)];
+        return x;
+    }
+
+    /** Sets bit {@code i} of {@code bitmap} if row {@code i} of the column ends in an accepting state. */
+    void matchColumn(int stop, byte[] data, int[] offsets, int rows, long[] bitmap) {
+        Arrays.fill(bitmap, 0, (rows + 63) >>> 6, 0L);
+        var i = 0;
+        // the lanes start at a multiple of LANES, so they share one word
+        for (; i + LANES <= rows; i += LANES) bitmap[i >>> 6] |= (long) matchLanes(stop, data, offsets, i) << i;
+        for (; i < rows; ++i)
+            if (isAcceptingState(run(stop, data, offsets[i], offsets[i + 1]))) bitmap[i >>> 6] |= 1L << i;
+    }
+
+    /** Stores the indices of the rows of the column ending in an accepting state into {@code selection}. */
+    int selectColumn(int stop, byte[] data, int[] offsets, int rows, int[] selection) {
+        var n = 0;
+        var i = 0;
+        for (; i + LANES <= rows; i += LANES)
+            for (var bits = matchLanes(stop, data, offsets, i); bits != 0; bits &= bits - 1)
+                selection[n++] = i + Integer.numberOfTrailingZeros(bits);
+        for (; i < rows; ++i)
+            if (isAcceptingState(run(stop, data, offsets[i], offsets[i + 1]))) selection[n++] = i;
+        return n;
+    }
+
+    /**
+     * Matches the {@link #LANES} rows starting at row {@code i} of the column, bit {@code k} of the
+     * result is set if row {@code i + k} ends in an accepting state.
+     *
+     * <p>The rows are matched in one interleaved loop. The state chains of the lanes don't depend on
+     * each other, so the table loads of one lane overlap with those of the others instead of waiting
+     * on each other.
+     */
+    private int matchLanes(int stop, byte[] data, int[] offsets, int i) {
+        var trans = this.trans;
+        int p0 = offsets[i], e0 = offsets[i + 1];
+        int p1 = offsets[i + 1], e1 = offsets[i + 2];
+        int p2 = offsets[i + 2], e2 = offsets[i + 3];
+        int p3 = offsets[i + 3], e3 = offsets[i + 4];
+        int x0 = initial, x1 = initial, x2 = initial, x3 = initial;
+        for (var busy = true; busy; ) {
+            busy = false;
+            if (p0 < e0 && x0 != DEAD && (x0 & stop) != stop) {
+                x0 = trans[stateRow(x0) + (data[p0++] & 0xff)];
+                busy = true;
+            }
+            if (p1 < e1 && x1 != DEAD && (x1 & stop) != stop) {
+                x1 = trans[stateRow(x1) + (data[p1++] & 0xff)];
+                busy = true;
+            }
+            if (p2 < e2 && x2 != DEAD && (x2 & stop) != stop) {
+                x2 = trans[stateRow(x2) + (data[p2++] & 0xff)];
+                busy = true;
+            }
+            if (p3 < e3 && x3 != DEAD && (x3 & stop) != stop) {
+                x3 = trans[stateRow(x3) + (data[p3++] & 0xff)];
+                busy = true;
+            }
+        }
+        return (x0 & 1) | (x1 & 1) << 1 | (x2 & 1) << 2 | (x3 & 1) << 3;
+    }
+
+    /**
+     * The decoding trie of UTF-8, independent of any state. Node entries are 0 for an invalid byte,
+     * {@code -(c + 1)} for a complete code point of alphabet class {@code c} and {@code k + 1} for a
+     * continuation at node {@code k}. Nodes with equal entries are shared. A prefix whose code points
+     * all fall into one class decodes through a node shared by all such prefixes, so only the prefixes
+     * containing a class boundary are expanded byte by byte.
+     */
+    private static final class Decoder {
+        final Alphabet alphabet;
+        final List<int[]> nodes = new ArrayList<>();
+        private final Map<IntBuffer, Integer> ids = new HashMap<>();
+        private final Map<Long, Integer> uniform = new HashMap<>();
+
+        Decoder(Alphabet alphabet) {
+            this.alphabet = alphabet;
+        }
+
+        int root() {
+            var node = new int[BYTES];
+            for (int b = 0; b < 0x80; ++b) node[b] = -(alphabet.classOf(b) + 1);
+            for (int b = 0xc2; b < 0xe0; ++b) node[b] = node((b & 0x1f) << 6, 1, 0x80, 0xbf) + 1;
+            for (int b = 0xe0; b < 0xf0; ++b) {
+                var lo = b == 0xe0 ? 0xa0 : 0x80;
+                var hi = b == 0xed ? 0x9f : 0xbf;
+                node[b] = node((b & 0xf) << 12, 2, lo, hi) + 1;
+            }
+            for (int b = 0xf0; b < 0xf5; ++b) {
+                var lo = b == 0xf0 ? 0x90 : 0x80;
+                var hi = b == 0xf4 ? 0x8f : 0xbf;
+                node[b] = node((b & 0x7) << 18, 3, lo, hi) + 1;
+            }
+            return intern(node);
+        }
+
+        private int node(int prefix, int remaining, int lo, int hi) {
+            var shift = 6 * (remaining - 1);
+            var first = prefix | (lo & 0x3f) << shift;
+            var last = prefix | (hi & 0x3f) << shift | ((1 << shift) - 1);
+            var c = alphabet.classOf(first, last + 1);
+            if (c >= 0)
+                return uniform(c, remaining, lo, hi);
+
+            var node = new int[BYTES];
+            for (int b = lo; b <= hi; ++b) {
+                var cp = prefix | (b & 0x3f) << shift;
+                node[b] = remaining == 1
+                        ? -(alphabet.classOf(cp) + 1)
+                        : node(cp, remaining - 1, 0x80, 0xbf) + 1;
+            }
+            return intern(node);
+        }
+
+        /** The node decoding {@code remaining} more bytes into code points of class {@code c} only. */
+        private int uniform(int c, int remaining, int lo, int hi) {
+            var key = (long) c << 24 | remaining << 16 | lo << 8 | hi;
+            var id = uniform.get(key);
+            if (id != null)
+                return id;
+            var e = remaining == 1 ? -(c + 1) : uniform(c, remaining - 1, 0x80, 0xbf) + 1;
+            var node = new int[BYTES];
+            Arrays.fill(node, lo, hi + 1, e);
+            id = intern(node);
+            uniform.put(key, id);
+            return id;
+        }
+
+        private int intern(int[] node) {
+            var id = ids.get(IntBuffer.wrap(node));
+            if (id != null)
+                return id;
+            id = nodes.size();
+            nodes.add(node);
+            ids.put(IntBuffer.wrap(node), id);
+            return id;
+        }
+    }
+
+    /** Instantiates the decoder nodes for the states of a {@link DFATable}. */
+    private static final class Lowering {
+        final DFATable dfa;
+        final Decoder decoder;
+        final List<int[]> rows;
+        final Map<IntBuffer, Integer> rowIds;
+        final Map<Long, Integer> memo = new HashMap<>();
+
+        Lowering(DFATable dfa, Decoder decoder, List<int[]> rows, Map<IntBuffer, Integer> rowIds) {
+            this.dfa = dfa;
+            this.decoder = decoder;
+            this.rows = rows;
+            this.rowIds = rowIds;
+        }
+
+        int[] row(int q, int node) {
+            var entries = decoder.nodes.get(node);
+            var row = new int[BYTES];
+            for (int b = 0; b < BYTES; ++b) {
+                var e = entries[b];
+                if (e < 0) row[b] = target(q, -e - 1);
+                else if (e > 0) row[b] = state(q, e - 1);
+            }
+            return row;
+        }
+
+        private int target(int q, int c) {
+            var x = dfa.trans[q * dfa.stride + DFATable.LATIN1 + c];
+            var y = newState(stateRow(x) / dfa.stride * BYTES, isAcceptingState(x));
+            return isUniversalState(x) ? y | UNIVERSAL : y;
+        }
+
+        private int state(int q, int node) {
+            var key = (long) q << 32 | node;
+            var x = memo.get(key);
+            if (x != null)
+                return x;
+            var row = row(q, node);
+            var id = rowIds.get(IntBuffer.wrap(row));
+            if (id == null) {
+                id = rows.size();
+                rows.add(row);
+                rowIds.put(IntBuffer.wrap(row), id);
+            }
+            x = newState(id * BYTES, false);
+            memo.put(key, x);
+            return x;
+        }
+    }
+}
@@ -268,33 +268,20 @@ public class IntervalSet<T> {
         var z = new ArrayList<Interval<T>>();
         var x = this;
 
-        int i, j;
-        for (i = 0, j = 0; i < x.n && j < y.n; ) {
+        for (int i = 0, j = 0; i < x.n; ++i) {
             var xi = x.get(i);
-            var yj = y.get(j);
-            if (xi.b <= yj.a) {
-                z.add(xi);
-                ++i;
-            } else if (yj.b <= xi.a) {
-                ++j;
-            } else {
-                // yj.a < xi.b
-                // xi.a < yj.b
-
-                var a = xi.a;
-                Interval<?> yk;
-                int k;
-                for (k = 0; k < y.n && (yk = y.get(k)).b <= xi.b; ++k, a = yk.b)
-                    if (a < yk.a) z.add(Interval.of(a, yk.a, xi.v));
-
-                if (k >= y.n && a < xi.b) z.add(Interval.of(a, xi.b, xi.v));
-
-                ++i;
+            var a = xi.a;
+            // intervals of y ending before xi can't overlap any later interval of x
+            while (j < y.n && y.get(j).b <= a) ++j;
+            for (int k = j; k < y.n && a < xi.b; ++k) {
+                var yk = y.get(k);
+                if (yk.a >= xi.b) break;
+                if (a < yk.a) z.add(Interval.of(a, yk.a, xi.v));
+                a = Integer.max(a, yk.b);
             }
+            if (a < xi.b) z.add(Interval.of(a, xi.b, xi.v));
         }
 
-        for (; i < x.n; ++i) z.add(x.get(i));
-
         return buildDestructive(
                 z,
                 new OrderedSemigroup<T>() {
@@ -329,16 +316,14 @@ public class IntervalSet<T> {
         var ivs = new ArrayList<Interval<T>>();
         var x = this;
 
-        for (int i = 0, j = 0; i < x.n && j < y.n; ++i) {
-            while (j < y.n && y.get(j).b <= x.get(i).a) ++j;
-            if (j >= y.n) break;
-            // here: xi.a < yj.b
-            while (i < x.n && x.get(i).b <= y.get(j).a) ++i;
-            if (i >= x.n) break;
-            // here yj.a < xi.b => overlap
-            Interval<T> z;
-            for (var k = j; k < y.n && (z = x.get(i).intersection(y.get(k), m)).isNonEmpty(); ++k)
-                ivs.add(z);
+        for (int i = 0, j = 0; i < x.n && j < y.n; ) {
+            var xi = x.get(i);
+            var yj = y.get(j);
+            var z = xi.intersection(yj, m);
+            if (z.isNonEmpty()) ivs.add(z);
+            // the interval ending first can't overlap anything else
+            if (xi.b <= yj.b) ++i;
+            else ++j;
         }
 
         return buildDestructive(ivs, m);
@@ -3,10 +3,17 @@ package de.sfxr.rederiv;
 import static org.junit.jupiter.api.Assertions.*;
 
 import de.sfxr.rederiv.support.EnumerateTrie;
+import de.sfxr.rederiv.support.Interval;
+import de.sfxr.rederiv.support.IntervalSet;
 import de.sfxr.rederiv.support.TestUtil;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Random;
 import java.util.regex.Pattern;
+import java.util.stream.Collectors;
 import org.junit.jupiter.api.Test;
 import org.opentest4j.AssertionFailedError;
 
@@ -75,6 +82,181 @@ public class Enumerated {
         assertTrue(dfa.matches("axxxxbbxxxxxx"));
     }
 
+    @Test
+    void testNeg() {
+        var dfa = DFA.compile(re.r("ab").neg());
+        assertFalse(dfa.matches("ab", MatchMode.FULL));
+        assertTrue(dfa.matches("", MatchMode.FULL));
+        assertTrue(dfa.matches("a", MatchMode.FULL));
+        assertTrue(dfa.matches("abc", MatchMode.FULL));
+        assertEquals(re.r("b").neg(), re.r("ab").neg().deriv('a'));
+        assertSame(re.r("ab"), re.r("ab").neg().neg());
+        assertTrue(DFA.compile(re.r("a").neg()).matches("aa", MatchMode.FULL));
+    }
+
+    @Test
+    void testHashConsing() {
+        var p = re.r('a').seq(re.any().many()).seq(re.r("bb"));
+        var q = re.r('a').seq(re.any().many()).seq(re.r("bb"));
+        assertSame(p, q);
+        assertSame(p.deriv('a'), q.deriv('a'));
+        assertSame(re.r("x").alt(re.r("yz")).neg(), re.r("yz").alt(re.r("x")).neg());
+        assertFalse(p.equals(p.capture()));
+    }
+
+    @Test
+    void testFind() {
+        var dfa = DFA.compile(re.r("ab").seq(re.r("c").many()).seq(re.r("d")));
+        assertEquals(4, dfa.find("xabd"));
+        assertEquals(5, dfa.find("xabcdabd", 0));
+        assertEquals(8, dfa.find("xabcdabd", 2));
+        assertEquals(-1, dfa.find("xabcdabd", 6));
+        assertEquals(-1, dfa.find("", 0));
+        assertThrows(IndexOutOfBoundsException.class, () -> dfa.find("ab", 3));
+
+        var empty = DFA.compile(re.r("x").many());
+        assertEquals(2, empty.find("abc", 2));
+        assertEquals(3, empty.find("abc", 3));
+    }
+
+    @Test
+    void testFindSpan() {
+        var dfa = DFA.compile(re.alt(re.r("ab"), re.r("b").seq(re.r("c").many()), re.r("abcd")));
+        var s = "xabcdxbccab";
+        var spans = new ArrayList<String>();
+        var pos = 0;
+        for (long sp; (sp = dfa.findSpan(s, pos)) >= 0; pos = DFA.spanEnd(sp))
+            spans.add(s.substring(DFA.spanStart(sp), DFA.spanEnd(sp)));
+        assertEquals(Arrays.asList("abcd", "bcc", "ab"), spans);
+
+        var a = DFA.compile(re.r("a").many());
+        assertEquals(DFA.span(0, 0), a.findSpan("baa", 0));
+        assertEquals(DFA.span(1, 3), a.findSpan("baa", 1));
+        assertEquals(-1, DFA.compile(re.r("ab")).findSpan("aab", 2));
+    }
+
+    @Test
+    void testDeadAndUniversalStates() {
+        // after "a" the intersection can't match anymore, although the derivative isn't void
+        var dead = DFA.compile(re.r("ab").seq(re.any().many()).isect(re.r("ac").seq(re.any().many())));
+        assertFalse(dead.toString().contains("->"), dead::toString);
+        assertFalse(dead.matches("abc"));
+        assertEquals(-1, dead.find("xabacx"));
+
+        var universal = DFA.compile(re.r("ab").seq(re.any().many()));
+        var s = "xab" + "y".repeat(1000);
+        assertEquals(DFA.span(1, s.length()), universal.findSpan(s));
+        assertEquals(DFA.span(3, 7), DFA.compile(re.r("y").some()).findSpan("xaby" + "yyyz", 3));
+    }
+
+    @Test
+    void testUtf8() {
+        var p = re.r("a").seq(re.any().many()).seq(re.r("\u00e9\u4e2d\ud83d\ude00"));
+        var dfa = DFA.compile(p);
+        for (var s : Arrays.asList("a\u00e9\u4e2d\ud83d\ude00", "ax\ud83d\ude00\u00e9\u4e2d\ud83d\ude00!", "a\u00e9\u4e2d", "b\u00e9\u4e2d\ud83d\ude00")) {
+            var b = s.getBytes(StandardCharsets.UTF_8);
+            assertEquals(dfa.matches(s), dfa.matches(b, 0, b.length), s);
+            assertEquals(dfa.matches(s), dfa.matches(ByteBuffer.wrap(b)), s);
+        }
+
+        var b = "xxa\u00e9\u4e2d\ud83d\ude00".getBytes(StandardCharsets.UTF_8);
+        assertTrue(dfa.matches(b, 2, b.length - 2));
+        assertFalse(dfa.matches(b, 2, b.length - 3));
+        assertTrue(dfa.matches(ByteBuffer.wrap(b, 2, b.length - 2)));
+
+        // overlong, surrogate and truncated encodings
+        var any = DFA.compile(re.any().many().seq(re.r("x")));
+        for (var bad : Arrays.asList(new byte[] {(byte) 0xc0, (byte) 0xaf, 'x'},
+                                     new byte[] {(byte) 0xed, (byte) 0xa0, (byte) 0x80, 'x'},
+                                     new byte[] {(byte) 0xf4, (byte) 0x90, (byte) 0x80, (byte) 0x80, 'x'},
+                                     new byte[] {(byte) 0xe4, (byte) 0xb8, 'x'},
+                                     new byte[] {(byte) 0x80, 'x'})) {
+            assertFalse(any.matches(bad, 0, bad.length));
+            for (var chunk = 1; chunk <= 2; ++chunk)
+                assertFalse(any.matchesParallel(ByteBuffer.wrap(bad), MatchMode.PREFIX, chunk));
+        }
+
+        // class boundaries inside of the multi byte ranges
+        var ivs = new ArrayList<Interval<Void>>();
+        for (var iv : new int[][] {{0x7f0, 0x801}, {0xd7ff, 0xd800}, {0xe000, 0xe002}, {0xfff0, 0x10006}, {0x10fff0, 0x110000}})
+            ivs.add(Interval.of(iv[0], iv[1]));
+        var cs = CharSet.from(IntervalSet.buildDestructive(ivs, null));
+        var set = DFA.compile(cs);
+        for (var cp : new int[] {0, 0x7f, 0x80, 0x7ef, 0x7f0, 0x7ff, 0x800, 0x801, 0xd7fe, 0xd7ff, 0xe000, 0xe001, 0xe002,
+                                 0xffef, 0xfff0, 0xffff, 0x10000, 0x10005, 0x10006, 0x10ffef, 0x10fff0, 0x10ffff}) {
+            var cb = new String(Character.toChars(cp)).getBytes(StandardCharsets.UTF_8);
+            assertEquals(cs.containsChar(cp), set.matches(cb, 0, cb.length), () -> Integer.toHexString(cp));
+        }
+
+        // bytes after an accepted prefix are not validated
+        var a = DFA.compile(re.r("a"));
+        var tail = new byte[] {'a', (byte) 0xff};
+        assertTrue(a.matches(tail, 0, tail.length));
+        assertTrue(a.matches(ByteBuffer.wrap(tail)));
+        assertFalse(a.matches(new byte[] {(byte) 0xff, 'a'}, 0, 2));
+    }
+
+    @Test
+    void testMatchingLines() {
+        var dfa = DFA.compile(re.r("a").seq(re.any().many()).seq(re.r("\u00e9")));
+        var pieces = new String[] {"a", "\u00e9", "b", "\ud83d\ude00"};
+        var rnd = new Random(7);
+        var sb = new StringBuilder();
+        for (int i = 0; i < 5000; ++i) {
+            for (int k = rnd.nextInt(6); k > 0; --k) sb.append(pieces[rnd.nextInt(pieces.length)]);
+            sb.append('\n');
+        }
+        sb.append("xa\u00e9");
+        var text = sb.toString();
+        var cs = text.toCharArray();
+        var b = text.getBytes(StandardCharsets.UTF_8);
+
+        for (var mode : MatchMode.values()) {
+            var expected = new ArrayList<String>();
+            for (var l : text.split("\n"))
+                if (dfa.matches(l, mode)) expected.add(l);
+
+            var chars = dfa.matchingLines(cs, 0, cs.length, mode).parallel()
+                    .mapToObj(sp -> text.substring(DFA.spanStart(sp), DFA.spanEnd(sp)))
+                    .collect(Collectors.toList());
+            assertEquals(expected, chars, mode::toString);
+            var bytes = dfa.matchingLines(b, 0, b.length, mode).parallel()
+                    .mapToObj(sp -> new String(b, DFA.spanStart(sp), DFA.spanEnd(sp) - DFA.spanStart(sp), StandardCharsets.UTF_8))
+                    .collect(Collectors.toList());
+            assertEquals(expected, bytes, mode::toString);
+        }
+        assertEquals(1, dfa.matchingLines(cs, cs.length - 3, 3, MatchMode.EARLIEST).count());
+    }
+
+    @Test
+    void testColumns() {
+        var dfa = DFA.compile(re.r("a").seq(re.any().many()).seq(re.r("\u00e9")));
+        var rows = new ArrayList<String>();
+        for (int i = 0; i < 150; ++i) rows.add(i % 3 == 0 ? "a" + i + "\u00e9" : i % 3 == 1 ? "xa\u00e9" : "");
+        var data = String.join("", rows).getBytes(StandardCharsets.UTF_8);
+        var offsets = new int[rows.size() + 2];
+        for (int i = 0; i < rows.size(); ++i)
+            offsets[i + 1] = offsets[i] + rows.get(i).getBytes(StandardCharsets.UTF_8).length;
+
+        for (var mode : MatchMode.values()) {
+            var bitmap = new long[3];
+            Arrays.fill(bitmap, -1);
+            var selection = new int[rows.size()];
+            dfa.matchColumn(data, offsets, rows.size(), mode, bitmap);
+            var n = dfa.selectColumn(data, offsets, rows.size(), mode, selection);
+            var k = 0;
+            for (int i = 0; i < rows.size(); ++i) {
+                var expected = dfa.matches(rows.get(i), mode);
+                assertEquals(expected, (bitmap[i >>> 6] & 1L << i) != 0, () -> mode + " " + rows);
+                if (expected) assertEquals(i, selection[k++]);
+            }
+            assertEquals(k, n);
+            assertEquals(0, bitmap[2] >>> (rows.size() & 63));
+        }
+        assertThrows(IndexOutOfBoundsException.class,
+                     () -> dfa.matchColumn(data, offsets, rows.size(), MatchMode.FULL, new long[2]));
+    }
+
     @Test
     void testEnumerated() {
         PATTERNS.forEach(this::testOne);
@@ -0,0 +1,66 @@
+package de.sfxr.rederiv;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import de.sfxr.rederiv.support.TestUtil;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+public class GrepTest {
+
+    static {
+        TestUtil.init();
+    }
+
+    private static final ReBuilder re = ReBuilder.get();
+
+    @Test
+    void testScan() throws IOException {
+        var text = "foo\nxab\u00e9\n\nab\n\u4e2dabab zz\nno match here\nab";
+        var lines = text.split("\n", -1);
+        var dfa = DFA.compile(re.r("ab").seq(re.any().opt()).seq(re.r("\u00e9").opt()));
+
+        var expected = new ArrayList<String>();
+        var offsets = new ArrayList<Long>();
+        var offset = 0L;
+        for (var l : lines) {
+            if (dfa.matches(l, MatchMode.EARLIEST)) {
+                expected.add(l);
+                offsets.add(offset);
+            }
+            offset += l.getBytes(StandardCharsets.UTF_8).length + 1;
+        }
+
+        var file = Files.createTempFile("grep", ".txt");
+        try {
+            Files.write(file, text.getBytes(StandardCharsets.UTF_8));
+            for (var window : new int[] {1, 2, 3, 7, 64, Grep.DEFAULT_WINDOW}) {
+                var found = new ArrayList<String>();
+                var foundOffsets = new ArrayList<Long>();
+                var grep = dfa.grep(window);
+                var count = grep.scan(file, (off, line) -> {
+                    var b = new byte[line.remaining()];
+                    line.get(b);
+                    found.add(new String(b, StandardCharsets.UTF_8));
+                    foundOffsets.add(off);
+                });
+                assertEquals(expected, found, () -> "window " + window);
+                assertEquals(offsets, foundOffsets, () -> "window " + window);
+                assertEquals(expected.size(), count);
+                assertEquals(expected.size(), grep.count(file));
+            }
+
+            assertEquals(1, DFA.compile(re.r("x")).grep().count(file));
+            Files.write(file, new byte[0]);
+            assertEquals(0, DFA.compile(re.r("")).grep().count(file));
+            Files.write(file, List.of("", ""), StandardCharsets.UTF_8);
+            assertEquals(2, DFA.compile(re.r("")).grep().count(file));
+        } finally {
+            Files.delete(file);
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package de.sfxr.rederiv;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import de.sfxr.rederiv.support.TestUtil;
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.junit.jupiter.api.Test;
+
+public class LazyDFATest {
+
+    static {
+        TestUtil.init();
+    }
+
+    private static final ReBuilder re = ReBuilder.get();
+
+    @Test
+    void testAgreesWithDFA() {
+        for (var pat : Enumerated.PATTERNS) {
+            var dfa = DFA.compile(pat);
+            var lazy = LazyDFA.compile(pat);
+            for (var s : new String[] {"", "A", "ABC", "ABCD", "BXXXA", "BXYXYXYA", "xaab", "CDCDCDE"}) {
+                assertEquals(dfa.matches(s), lazy.matches(s), () -> pat + " " + s);
+                assertEquals(dfa.find(s), lazy.find(s), () -> pat + " " + s);
+            }
+        }
+    }
+
+    @Test
+    void testExponential() {
+        // (a|b)*a(a|b){20}c, the full DFA has millions of states
+        var ab = re.alt(re.r("a"), re.r("b"));
+        var lazy = LazyDFA.compile(re.seq(ab.many(), re.r("a"), ab.repeat(20), re.r("c")), 1 << 16);
+
+        var rnd = new Random(42);
+        var sb = new StringBuilder();
+        for (int i = 0; i < 20000; ++i) sb.append(rnd.nextBoolean() ? 'a' : 'b');
+        sb.setCharAt(sb.length() - 21, 'a');
+        assertTrue(lazy.matches(sb + "c"));
+        assertEquals(sb.length() + 2, lazy.find("x" + sb + "c", 1));
+        sb.setCharAt(sb.length() - 21, 'b');
+        assertFalse(lazy.matches(sb + "c"));
+        assertTrue(lazy.flushes() > 0);
+    }
+
+    @Test
+    void testConcurrent() throws Exception {
+        var ab = re.alt(re.r("a"), re.r("b"));
+        var pat = re.seq(ab.many(), re.r("a"), ab.repeat(8), re.r("c"));
+        var dfa = DFA.compile(pat);
+        var shared = ConcurrentLazyDFA.compile(pat);
+        var small = ConcurrentLazyDFA.compile(pat, 16);
+
+        var pool = Executors.newFixedThreadPool(8);
+        try {
+            var results = new ArrayList<Future<?>>();
+            for (int t = 0; t < 8; ++t) {
+                var seed = t;
+                results.add(pool.submit(() -> {
+                    var rnd = new Random(seed);
+                    for (int k = 0; k < 2000; ++k) {
+                        var sb = new StringBuilder();
+                        for (int i = rnd.nextInt(40); i > 0; --i) sb.append("abc".charAt(rnd.nextInt(3)));
+                        var s = sb.toString();
+                        assertEquals(dfa.matches(s), shared.matches(s), s);
+                        assertEquals(dfa.find(s), shared.find(s), s);
+                        assertEquals(dfa.matches(s), small.matches(s), s);
+                    }
+                }));
+            }
+            for (var r : results) r.get();
+        } finally {
+            pool.shutdown();
+        }
+        // the limit is checked without locking, each thread may overshoot it once
+        assertTrue(small.stateCount() <= 16 + 8);
+    }
+}
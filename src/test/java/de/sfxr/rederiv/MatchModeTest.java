@@ -0,0 +1,37 @@
+package de.sfxr.rederiv;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import de.sfxr.rederiv.support.TestUtil;
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Pattern;
+import org.junit.jupiter.api.Test;
+
+public class MatchModeTest {
+
+    static {
+        TestUtil.init();
+    }
+
+    private static final ReBuilder re = ReBuilder.get();
+
+    @Test
+    void testAgreesWithJavaRegex() {
+        List<Re> pats = Arrays.asList(
+                re.r(""),
+                re.r("ab"),
+                re.r("a").seq(re.any().many()).seq(re.r("b")),
+                re.alt(re.r("A").many(), re.r("B").some()),
+                re.r("AB").seq(re.r("CD").alt(re.r("A")).range(3, 5)).seq(re.r("E")));
+        for (var pat : pats) {
+            var jpat = Pattern.compile(pat.toPattern());
+            var dfa = DFA.compile(pat);
+            for (var s : new String[] {"", "ab", "xab", "abx", "aXb", "AAA", "xBB", "ABCDAAE", "xABAAAE", "ABAE"}) {
+                assertEquals(jpat.matcher(s).matches(), dfa.matches(s, MatchMode.FULL), () -> pat + " " + s);
+                assertEquals(jpat.matcher(s).lookingAt(), dfa.matches(s, MatchMode.PREFIX), () -> pat + " " + s);
+                assertEquals(jpat.matcher(s).find(), dfa.matches(s, MatchMode.EARLIEST), () -> pat + " " + s);
+            }
+        }
+    }
+}
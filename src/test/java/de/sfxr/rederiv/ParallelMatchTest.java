@@ -0,0 +1,44 @@
+package de.sfxr.rederiv;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import de.sfxr.rederiv.support.TestUtil;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+public class ParallelMatchTest {
+
+    static {
+        TestUtil.init();
+    }
+
+    private static final ReBuilder re = ReBuilder.get();
+
+    @Test
+    void testAgreesWithSequential() {
+        List<Re> pats = Arrays.asList(
+                re.r(""),
+                re.r("a").seq(re.any().many()).seq(re.r("\u00e9\ud83d\ude00")),
+                re.alt(re.r("ab"), re.r("b").some()),
+                re.any().many().seq(re.r("\u4e2dx")));
+        var strings = new String[] {
+            "", "a\u00e9\ud83d\ude00", "xa\u00e9\ud83d\ude00", "bbbbbbbb", "abab",
+            "a" + "\u4e2d\u00e9".repeat(20) + "\u00e9\ud83d\ude00", "\u00e9".repeat(30) + "\u4e2dx"
+        };
+        for (var pat : pats) {
+            var dfa = DFA.compile(pat);
+            for (var s : strings) {
+                var b = s.getBytes(StandardCharsets.UTF_8);
+                for (var mode : MatchMode.values()) {
+                    var expected = dfa.matches(s, mode);
+                    for (var chunk : new int[] {1, 2, 3, 7, ParallelMatch.DEFAULT_MIN_CHUNK})
+                        assertEquals(expected, dfa.matchesParallel(ByteBuffer.wrap(b), mode, chunk),
+                                     () -> pat + " " + mode + " " + chunk + " " + s);
+                }
+            }
+        }
+    }
+}
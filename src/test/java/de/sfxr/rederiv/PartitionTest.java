@@ -0,0 +1,63 @@
+package de.sfxr.rederiv;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import de.sfxr.rederiv.support.TestUtil;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import org.junit.jupiter.api.Test;
+
+public class PartitionTest {
+
+    static {
+        TestUtil.init();
+    }
+
+    private static final ReBuilder re = ReBuilder.get();
+
+    /** The classes are non-empty, pairwise disjoint and cover all code points. */
+    private static void assertPartition(Set<CharSet> classes) {
+        var n = 0;
+        for (var S : classes) {
+            assertFalse(S.isEmptySet());
+            n += S.toIntervalSet().cardinality();
+            for (var T : classes)
+                if (S != T) assertTrue(S.intersect(T).isEmptySet(), () -> S + " " + T);
+        }
+        assertEquals(Alphabet.UNICODE_END, n);
+    }
+
+    @Test
+    void testDerivClasses() {
+        var abc = CharSet.fromString("abc");
+        var p = re.r("ab").alt(re.r("b").seq(re.any())).alt(abc.many().seq(re.r("d")));
+        var classes = p.derivClasses();
+        assertPartition(classes);
+        // a, b, c, d and everything else
+        assertEquals(5, classes.size());
+        assertSame(classes, p.derivClasses());
+        assertPartition(ReDeriv.intersections(Set.of(CharSet.fromString("abcm")), Set.of(CharSet.fromString("cmxyz"))));
+        assertPartition(new ReVec<>(List.of(re.r("a"), abc, re.r("z"))).derivClasses());
+    }
+
+    @Test
+    void testSingleDerivativePerClass() {
+        List<Re> pats = Arrays.asList(
+                re.r(""),
+                re.alt(re.r("A").many(), re.r("B").some()),
+                re.any().many().seq(re.r("a")).seq(re.any().many()).seq(re.r("b")),
+                CharSet.fromString("xyz").some().isect(re.r("x").seq(re.any().many())),
+                re.r("ab").neg());
+        for (var pat : pats) {
+            assertPartition(pat.derivClasses());
+            for (var S : pat.derivClasses()) assertSame(pat.deriv(S.pickOne()), pat.deriv(S));
+        }
+    }
+
+    @Test
+    void testReVecReusesNodePartitions() {
+        var p = re.r("a").seq(re.any().many()).seq(CharSet.fromString("bc"));
+        assertSame(p.derivClasses(), new ReVec<>(List.of(p)).derivClasses());
+    }
+}
@@ -0,0 +1,95 @@
+package de.sfxr.rederiv;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import de.sfxr.rederiv.support.TestUtil;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+public class PatternSetTest {
+
+    static {
+        TestUtil.init();
+    }
+
+    private static final ReBuilder re = ReBuilder.get();
+
+    private static BitSet bits(int... is) {
+        var b = new BitSet();
+        for (var i : is) b.set(i);
+        return b;
+    }
+
+    @Test
+    void testMatches() {
+        List<Re> pats = Arrays.asList(
+                re.r("ab"),
+                re.r("a").seq(re.any().many()).seq(re.r("z")),
+                re.r("b"),
+                re.r(""),
+                re.r("a").some());
+        var set = PatternSet.compile(pats);
+
+        for (var s : new String[] {"", "a", "ab", "abz", "aaaz", "b", "xyz", "abxxxz"}) {
+            var expected = new BitSet();
+            for (int i = 0; i < pats.size(); ++i)
+                if (DFA.compile(pats.get(i)).matches(s)) expected.set(i);
+            assertEquals(expected, set.matches(s), s);
+        }
+        assertEquals(bits(0, 1, 3, 4), set.matches("abz"));
+    }
+
+    @Test
+    void testDiesOnceDecided() {
+        var set = PatternSet.compile(Arrays.asList(re.r("a"), re.r("ab")));
+        // after "ab" both patterns have fired, no state remains
+        assertEquals(bits(0, 1), set.matches("ab" + "x".repeat(100)));
+        assertEquals(bits(0), set.matches("ax"));
+        assertEquals(bits(), set.matches("b"));
+    }
+
+    @Test
+    void testAnchored() {
+        var set = PatternSet.compile(Arrays.asList(re.r("ERROR"), re.any().many().seq(re.r("ERROR"))));
+        assertEquals(bits(0, 1), set.matches("ERROR: disk full"));
+        assertEquals(bits(1), set.matches("12:00 ERROR: disk full"));
+    }
+
+    @Test
+    void testStreams() {
+        List<Re> pats = Arrays.asList(
+                re.r("\u00e9t\u00e9"),
+                re.any().many().seq(re.r("\ud83d\ude00")),
+                re.r(""),
+                re.r("x").some().seq(re.r("y")));
+        var set = PatternSet.compile(pats);
+
+        for (var s : new String[] {"\u00e9t\u00e9", "xxy\ud83d\ude00", "xz", "\u00e9t\ud83d\ude00"}) {
+            var b = s.getBytes(StandardCharsets.UTF_8);
+            for (int k = 0; k <= b.length; ++k) {
+                var fired = new ArrayList<Integer>();
+                var state = set.streamStart(fired::add);
+                state = set.streamScan(state, b, 0, k, fired::add);
+                state = set.streamScan(state, ByteBuffer.wrap(b, k, b.length - k), fired::add);
+                var expected = set.matches(s);
+                assertEquals(expected.cardinality(), fired.size(), s);
+                for (var i : fired) assertTrue(expected.get(i), s);
+            }
+        }
+
+        var fired = new BitSet();
+        var state = set.streamStart(fired::set);
+        state = set.streamScan(state, new byte[] {'x', 'y', 'z'}, 0, 3, fired::set);
+        assertEquals(bits(2, 3), fired);
+        // only the open ended pattern is still undecided
+        assertFalse(PatternSet.isStreamDone(state));
+        state = set.streamScan(state, "\ud83d\ude00".getBytes(StandardCharsets.UTF_8), 0, 4, fired::set);
+        assertEquals(bits(1, 2, 3), fired);
+        assertTrue(PatternSet.isStreamDone(state));
+    }
+}
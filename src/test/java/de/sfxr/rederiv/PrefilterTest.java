@@ -0,0 +1,41 @@
+package de.sfxr.rederiv;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import de.sfxr.rederiv.support.TestUtil;
+import java.util.Set;
+import org.junit.jupiter.api.Test;
+
+public class PrefilterTest {
+
+    static {
+        TestUtil.init();
+    }
+
+    private static final ReBuilder re = ReBuilder.get();
+
+    @Test
+    void testLitPrefix() {
+        var error = DFA.compile(re.r("ERROR ").seq(re.digits()));
+        assertEquals(22, error.find("INFO 1 ERROR x ERROR 42"));
+        assertEquals(-1, error.find("INFO 1 ERROR x ERROR ", 3));
+        assertEquals(DFA.span(15, 23), error.findSpan("INFO 1 ERROR x ERROR 42"));
+        assertEquals("a", re.alt(re.r("ab"), re.r("ac")).repeat(2).litPrefix());
+        assertEquals("", re.r("a").neg().litPrefix());
+    }
+
+    @Test
+    void testRequiredFactors() {
+        var del = re.seq(re.any().many(), re.r("user="), re.digits(), re.r(" action=delete"));
+        assertEquals(Set.of(" action=delete"), del.requiredFactors());
+        assertEquals(23, DFA.compile(del).find("a user=12 action=delete user=1"));
+        assertEquals(-1, DFA.compile(del).find("a user=12 action=update"));
+
+        var kw = re.seq(re.any().many(), re.alt(re.r("warn"), re.r("error"), re.r("fatal")), re.r(":"));
+        assertEquals(Set.of("warn", "error", "fatal"), kw.requiredFactors());
+        var kwf = Prefilter.of(kw.requiredFactors());
+        assertTrue(kwf.mayMatch("xx fatal", 0));
+        assertFalse(kwf.mayMatch("xx fatal", 4));
+        assertFalse(kwf.mayMatch("info only", 0));
+    }
+}
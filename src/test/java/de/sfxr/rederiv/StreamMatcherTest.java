@@ -0,0 +1,88 @@
+package de.sfxr.rederiv;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import de.sfxr.rederiv.support.TestUtil;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+public class StreamMatcherTest {
+
+    static {
+        TestUtil.init();
+    }
+
+    private static final ReBuilder re = ReBuilder.get();
+
+    @Test
+    void testStatus() {
+        var dfa = DFA.compile(re.r("a").seq(re.any().many()).seq(re.r("\ud83d\ude00")));
+        var m = dfa.streamMatcher(MatchMode.FULL);
+        assertEquals(StreamMatcher.Status.UNDECIDED, m.feed("ax\ud83d"));
+        assertEquals(StreamMatcher.Status.UNDECIDED, m.feed("\ude00"));
+        assertTrue(m.finish());
+        m.reset();
+        assertEquals(StreamMatcher.Status.DEAD, m.feed("b"));
+        assertThrows(IllegalStateException.class, () -> m.feed(new byte[] {'a'}, 0, 1));
+
+        var universal = DFA.compile(re.r("ab").seq(re.any().many())).streamMatcher(MatchMode.FULL);
+        assertEquals(StreamMatcher.Status.MATCHED, universal.feed(new byte[] {'a', 'b'}, 0, 2));
+
+        // a surrogate pair straddling the chunks copied out of a long sequence
+        var text = "a" + "x".repeat(1022) + "\ud83d\ude00";
+        for (CharSequence cs : List.of(text, new StringBuilder(text))) {
+            m.reset();
+            assertEquals(StreamMatcher.Status.UNDECIDED, m.feed(cs));
+            assertTrue(m.finish());
+        }
+    }
+
+    @Test
+    void testSplits() {
+        List<Re> pats = Arrays.asList(
+                re.r(""),
+                re.r("a").seq(re.any().many()).seq(re.r("\u00e9\ud83d\ude00")),
+                re.r("\u4e2d").some(),
+                re.alt(re.r("ab"), re.r("b").some()));
+        for (var pat : pats) {
+            var dfa = DFA.compile(pat);
+            for (var s : new String[] {"", "a\u00e9\ud83d\ude00", "xa\u4e2d\u00e9\ud83d\ude00", "\u4e2d\u4e2dx", "abb", "bbb"})
+                for (var mode : MatchMode.values()) assertSplits(dfa, mode, s);
+        }
+    }
+
+    /** Feeds {@code s} in two chunks split at every char and every byte. */
+    private static void assertSplits(DFA<Re> dfa, MatchMode mode, String s) {
+        var expected = dfa.matches(s, mode);
+        var m = dfa.streamMatcher(mode);
+        for (int k = 0; k <= s.length(); ++k) {
+            m.reset();
+            m.feed(s.substring(0, k));
+            var status = m.feed(s.substring(k).toCharArray(), 0, s.length() - k);
+            assertEquals(expected, m.finish(), () -> mode + " " + s);
+            if (status != StreamMatcher.Status.UNDECIDED)
+                assertEquals(expected, status == StreamMatcher.Status.MATCHED, () -> mode + " " + s);
+        }
+        var b = s.getBytes(StandardCharsets.UTF_8);
+        for (int k = 0; k <= b.length; ++k) {
+            m.reset();
+            m.feed(b, 0, k);
+            m.feed(ByteBuffer.wrap(b, k, b.length - k));
+            assertEquals(expected, m.finish(), () -> mode + " bytes " + s);
+        }
+    }
+
+    @Test
+    void testBounds() {
+        var m = DFA.compile(re.r("ab")).streamMatcher(MatchMode.PREFIX);
+        var b = new byte[] {'a', 'b'};
+        assertThrows(IndexOutOfBoundsException.class, () -> m.feed(b, 1, 2));
+        assertThrows(IndexOutOfBoundsException.class, () -> m.feed(b, 0, -1));
+        assertThrows(IndexOutOfBoundsException.class, () -> m.feed(new char[] {'a'}, -1, 1));
+        m.reset();
+        assertEquals(StreamMatcher.Status.MATCHED, m.feed(b, 0, 2));
+    }
+}
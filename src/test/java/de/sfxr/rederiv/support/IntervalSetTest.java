@@ -58,4 +58,31 @@ public class IntervalSetTest {
             }
         }
     }
+
+    private static IntervalSet<Void> setOf(int... bounds) {
+        var ivs = new ArrayList<Interval<Void>>();
+        for (int i = 0; i < bounds.length; i += 2) ivs.add(Interval.of(bounds[i], bounds[i + 1]));
+        return IntervalSet.buildDestructive(ivs, null);
+    }
+
+    @Test
+    void testDifference() {
+        assertEquals(
+                setOf(0, 10, 20, 30, 40, 90).asList(),
+                setOf(0, 100).difference(setOf(10, 20, 30, 40, 90, 120)).asList());
+        assertEquals(
+                setOf(0, 1, 2, 5, 50, 55, 56, 60).asList(),
+                setOf(0, 5, 50, 60).difference(setOf(1, 2, 55, 56)).asList());
+        assertEquals(List.of(), setOf(3, 4).difference(setOf(0, 10)).asList());
+    }
+
+    @Test
+    void testIntersection() {
+        assertEquals(
+                setOf(128512, 128513).asList(),
+                setOf(99, 100, 128512, 128513).intersection(setOf(233, 234, 128512, 128513), null).asList());
+        assertEquals(
+                setOf(5, 10, 20, 25, 30, 31).asList(),
+                setOf(0, 10, 20, 31).intersection(setOf(5, 25, 30, 40), null).asList());
+    }
 }